@@ -0,0 +1,138 @@
+package CoreUtils;
+
+/**
+ * ScapeGoatIntKey that also answers range aggregate queries (sum, min, max, or anything else expressible as a
+ *   {@link RangeMonoid}) in O(log n).  Every node caches the summary of its whole subtree, which is kept up to
+ *   date by add, remove, and rebuild through {@link #update}.  A range query then combines the summaries of the
+ *   O(log n) subtrees that exactly cover the range instead of visiting the values.
+ *
+ * @param <V> data type for the values the tree will be storing
+ * @param <A> data type of the summaries
+ */
+public class AggregatingScapeGoatIntKey<V, A> extends ScapeGoatIntKey<V> {
+    /**
+     * Node that also caches the summary of its subtree
+     *
+     * @param <V> type for the values to hold
+     * @param <A> type for the summaries to hold
+     */
+    protected static class AggregateNode<V, A> extends Node<Integer, V> {
+        public A summary;
+
+        //simple constructor
+        public AggregateNode(Integer key, V value, Node<Integer, V> parent) {
+            super(key, value, parent, null, null);
+        }
+    }
+
+    //how values are summarized
+    protected final RangeMonoid<V, A> monoid;
+
+    /**
+     * Constructs an empty tree that summarizes its values with monoid
+     * @param monoid how to summarize values
+     */
+    public AggregatingScapeGoatIntKey(RangeMonoid<V, A> monoid) {
+        super();
+        this.monoid = monoid;
+    }
+
+    /**
+     * Creates a new empty tree with the same monoid
+     * @return new empty tree
+     */
+    @Override
+    protected AggregatingScapeGoatIntKey<V, A> newTree() {
+        return new AggregatingScapeGoatIntKey<>(monoid);
+    }
+
+    /**
+     * Splits this tree in two, see {@link ScapeGoatTree#split}
+     * @param key first key of the returned tree
+     * @return new tree holding the entries with keys &gt;= key
+     * @throws IllegalArgumentException if key is <code>null</code>
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public AggregatingScapeGoatIntKey<V, A> split(Integer key) throws IllegalArgumentException {
+        return (AggregatingScapeGoatIntKey<V, A>) super.split(key);
+    }
+
+    /**
+     * Combines the values with keys in [start, end], in key order, in O(log n).
+     *
+     * @param start starting key
+     * @param end ending key
+     * @return summary of the values in the range, or <code>monoid.identity()</code> if the range is empty
+     */
+    public A aggregateRange(int start, int end) {
+        Node<Integer, V> split = splitNode(start, end);
+        if (split == null) return monoid.identity();
+
+        //left path: a node at or above start brings its right subtree, all of which come after what is left
+        A leftPart = monoid.identity();
+        for (Node<Integer, V> n = split.left; n != null; ) {
+            if (n.key >= start) {
+                leftPart = monoid.combine(monoid.combine(monoid.lift(n.value), summaryOf(n.right)), leftPart);
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+        }
+        //right path, mirrored
+        A rightPart = monoid.identity();
+        for (Node<Integer, V> n = split.right; n != null; ) {
+            if (n.key <= end) {
+                rightPart = monoid.combine(rightPart, monoid.combine(summaryOf(n.left), monoid.lift(n.value)));
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+        return monoid.combine(monoid.combine(leftPart, monoid.lift(split.value)), rightPart);
+    }
+
+    /**
+     * Returns the summary of every value in the tree, in O(1)
+     * @return summary of the whole tree
+     */
+    public A aggregateAll() {
+        return summaryOf(root);
+    }
+
+    /**
+     * Creates an AggregateNode so that every node in this tree can cache a summary
+     * @param key key to store
+     * @param value value to store
+     * @param parent parent of the new node
+     * @return new leaf node
+     */
+    @Override
+    protected Node<Integer, V> createNode(Integer key, V value, Node<Integer, V> parent) {
+        AggregateNode<V, A> node = new AggregateNode<>(key, value, parent);
+        node.summary = monoid.lift(value);
+        return node;
+    }
+
+    /**
+     * Recomputes the size and the summary of node from its children
+     * @param node node to update
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void update(Node<Integer, V> node) {
+        super.update(node);
+        ((AggregateNode<V, A>) node).summary =
+                monoid.combine(monoid.combine(summaryOf(node.left), monoid.lift(node.value)), summaryOf(node.right));
+    }
+
+    /**
+     * Returns the cached summary of a subtree
+     * @param node root of subtree
+     * @return summary of the subtree, or <code>monoid.identity()</code> for an empty subtree
+     */
+    @SuppressWarnings("unchecked")
+    protected A summaryOf(Node<Integer, V> node) {
+        return node == null ? monoid.identity() : ((AggregateNode<V, A>) node).summary;
+    }
+}
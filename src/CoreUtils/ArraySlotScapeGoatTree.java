@@ -0,0 +1,127 @@
+package CoreUtils;
+
+import java.util.Arrays;
+
+/**
+ * {@link SlotScapeGoatTree} whose slots are parallel heap arrays: the left/right/parent links and subtree sizes
+ *   are int[]s and the values live in an Object[].  Shared by {@link PrimitiveScapeGoatIntKey} and
+ *   {@link PrimitiveScapeGoatLongKey}, which add a primitive key array of their own and search the arrays here
+ *   directly.
+ *
+ * @param <V> data type for the values the tree will be storing
+ */
+abstract class ArraySlotScapeGoatTree<V> extends SlotScapeGoatTree {
+    static final int DEFAULT_CAPACITY = 16;
+
+    //parallel node arrays, indexed by slot
+    int[] left, right, parent, size;
+    Object[] values;
+
+    /**
+     * Allocates the link, size and value arrays.  The subclass allocates its key array with the same length,
+     *   <code>left.length</code>.
+     * @param initialCapacity number of nodes to allocate room for
+     * @throws IllegalArgumentException if initialCapacity is negative
+     */
+    ArraySlotScapeGoatTree(int initialCapacity) throws IllegalArgumentException {
+        if (initialCapacity < 0)
+            throw new IllegalArgumentException("Negative initial capacity " + initialCapacity);
+        int capacity = Math.max(initialCapacity, 1);
+        left = new int[capacity];
+        right = new int[capacity];
+        parent = new int[capacity];
+        size = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * Grows the key array to capacity slots, keeping its contents
+     * @param capacity new number of slots
+     */
+    abstract void growKeys(int capacity);
+
+    /**
+     * Copies the key in slot from into slot to
+     * @param from slot to copy from
+     * @param to slot to copy to
+     */
+    abstract void copyKey(int from, int to);
+
+    /**
+     * Empties the tree.  Keeps the allocated arrays for reuse.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(values, 0, slotsUsed, null);
+        super.clear();
+    }
+
+    /**
+     * Links in a new leaf holding value, see {@link SlotScapeGoatTree#attach(int, boolean)}
+     * @param par slot the search ended at, NIL for an empty tree
+     * @param goLeft whether the new slot is the left child of par
+     * @param value value to store
+     * @return the new slot
+     */
+    int attach(int par, boolean goLeft, V value) {
+        int node = attach(par, goLeft);
+        values[node] = value;
+        return node;
+    }
+
+    /**
+     * Returns the value in slot
+     * @param slot slot to read, may be NIL
+     * @return value in slot, or <code>null</code> for NIL
+     */
+    @SuppressWarnings("unchecked")
+    V valueAt(int slot) {
+        return slot == NIL ? null : (V) values[slot];
+    }
+
+    @Override
+    final int left(int slot) { return left[slot]; }
+    @Override
+    final int right(int slot) { return right[slot]; }
+    @Override
+    final int parent(int slot) { return parent[slot]; }
+    @Override
+    final int size(int slot) { return size[slot]; }
+    @Override
+    final void setLeft(int slot, int x) { left[slot] = x; }
+    @Override
+    final void setRight(int slot, int x) { right[slot] = x; }
+    @Override
+    final void setParent(int slot, int x) { parent[slot] = x; }
+    @Override
+    final void setSize(int slot, int x) { size[slot] = x; }
+
+    @Override
+    final void reserve(int slot) {
+        if (slot == left.length) grow((int) Math.min(2L * left.length, Integer.MAX_VALUE - 8));
+    }
+
+    @Override
+    final void copyEntry(int from, int to) {
+        copyKey(from, to);
+        values[to] = values[from];
+    }
+
+    @Override
+    final void releaseEntry(int slot) {
+        values[slot] = null;
+    }
+
+    /**
+     * Grows the node arrays, keys included
+     * @param capacity new number of slots
+     */
+    private void grow(int capacity) {
+        growKeys(capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        size = Arrays.copyOf(size, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,70 @@
+package CoreUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values to and from bytes, for writing trees to disk.  Null values are handled by the file formats
+ *   themselves, so codecs never see <code>null</code>.
+ *
+ * @param <T> type of value to convert
+ */
+public interface BinaryCodec<T> {
+    /**
+     * Codec for strings, stored as UTF-8
+     */
+    BinaryCodec<String> UTF8 = new BinaryCodec<>() {
+        @Override
+        public byte[] encode(String value) { return value.getBytes(StandardCharsets.UTF_8); }
+
+        @Override
+        public String decode(ByteBuffer bytes) { return StandardCharsets.UTF_8.decode(bytes).toString(); }
+    };
+
+    /**
+     * Codec for integers, stored as 4 big-endian bytes
+     */
+    BinaryCodec<Integer> INT = new BinaryCodec<>() {
+        @Override
+        public byte[] encode(Integer value) { return ByteBuffer.allocate(Integer.BYTES).putInt(value).array(); }
+
+        @Override
+        public Integer decode(ByteBuffer bytes) { return bytes.getInt(); }
+    };
+
+    /**
+     * Codec for longs, stored as 8 big-endian bytes
+     */
+    BinaryCodec<Long> LONG = new BinaryCodec<>() {
+        @Override
+        public byte[] encode(Long value) { return ByteBuffer.allocate(Long.BYTES).putLong(value).array(); }
+
+        @Override
+        public Long decode(ByteBuffer bytes) { return bytes.getLong(); }
+    };
+
+    /**
+     * Codec for doubles, stored as 8 big-endian bytes
+     */
+    BinaryCodec<Double> DOUBLE = new BinaryCodec<>() {
+        @Override
+        public byte[] encode(Double value) { return ByteBuffer.allocate(Double.BYTES).putDouble(value).array(); }
+
+        @Override
+        public Double decode(ByteBuffer bytes) { return bytes.getDouble(); }
+    };
+
+    /**
+     * Converts a value to bytes
+     * @param value value to encode, never <code>null</code>
+     * @return encoded bytes
+     */
+    byte[] encode(T value);
+
+    /**
+     * Converts bytes back to a value
+     * @param bytes buffer whose remaining bytes are exactly one encoded value
+     * @return decoded value
+     */
+    T decode(ByteBuffer bytes);
+}
@@ -0,0 +1,205 @@
+package CoreUtils;
+
+import CoreUtils.ScapeGoatTreeInterface.Node;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Thread-safe wrapper around a {@link ScapeGoatTree}.  Lookups ({@link #get}, {@link #containsKey}) first try a
+ *   lock-free optimistic read with a {@link StampedLock}: they walk the tree without blocking anyone and then
+ *   validate that no writer ran in the meantime.  Only if a write overlapped (or the walk saw a tree in the
+ *   middle of being relinked) do they retry under the read lock.  Writers take the write lock.
+ * <p>
+ * Because a reader only returns a result after validating its stamp, it can never observe a half-rebuilt
+ *   subtree: anything it read during a rebuild is thrown away.  Optimistic walks are also capped at the wrapped
+ *   tree's height bound (which depends on its alpha), so a walk through a tree being relinked cannot loop, while
+ *   a walk through a legitimately deep tree never hits the cap.
+ *
+ * @apiNote all writers share one lock.  Rebuilds (and the full rebuild in remove) can relink any part of the
+ *   tree, up to the root, so there is no smaller subtree a writer could safely lock on its own.
+ *
+ * @param <K> data type for the keys the tree will store.  Must be comparable, unless the wrapped tree has a
+ *           comparator.
+ * @param <V> data type for the values the tree will be storing
+ */
+public class ConcurrentScapeGoatTree<K, V> {
+    //marker for an optimistic walk that ran out of steps
+    private static final Node<?, ?> NOT_DONE = new Node<>(0, null, null, null, null);
+
+    private final ScapeGoatTree<K, V> tree;
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Constructs an empty concurrent tree
+     */
+    public ConcurrentScapeGoatTree() { this(new ScapeGoatTree<>()); }
+
+    /**
+     * Wraps an existing tree.  The tree must not be used directly afterwards, only through this wrapper.
+     * @param tree tree to wrap
+     */
+    public ConcurrentScapeGoatTree(ScapeGoatTree<K, V> tree) { this.tree = tree; }
+
+    /**
+     * Returns the value associated with key, without locking unless a writer interferes
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if it does not exist
+     */
+    public V get(K key) {
+        if (key == null) return null;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Node<K, V> node = optimisticFind(key);
+                //read the value before validating, so it is covered by the stamp too
+                V value = node == null ? null : node.value;
+                if (node != NOT_DONE && lock.validate(stamp)) {
+                    return value;
+                }
+            } catch (RuntimeException ignored) {
+                //saw a torn state mid-write, fall through to the locked read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.get(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns whether key is in the tree, without locking unless a writer interferes
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(K key) {
+        if (key == null) return false;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Node<K, V> node = optimisticFind(key);
+                if (node != NOT_DONE && lock.validate(stamp)) {
+                    return node != null;
+                }
+            } catch (RuntimeException ignored) {
+                //saw a torn state mid-write, fall through to the locked read
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return tree.findNode(key) != null;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds an element, see {@link ScapeGoatTree#add}
+     * @param key key to insert
+     * @param value value to associate with key
+     */
+    public void add(K key, V value) {
+        long stamp = lock.writeLock();
+        try {
+            tree.add(key, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes an element, see {@link ScapeGoatTree#remove}
+     * @param key key to remove
+     */
+    public void remove(K key) {
+        long stamp = lock.writeLock();
+        try {
+            tree.remove(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Empties the tree
+     */
+    public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            tree.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns the number of nodes in the tree
+     * @return number of nodes
+     */
+    public int size() {
+        long stamp = lock.tryOptimisticRead();
+        int size = tree.size();
+        if (lock.validate(stamp)) return size;
+        stamp = lock.readLock();
+        try {
+            return tree.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs any read-only operation on the tree (range queries, iteration, rank, ...) under the read lock.  The
+     *   function must not modify the tree or let the tree or its iterators escape.
+     * @param reader read-only operation
+     * @param <R> result type
+     * @return whatever reader returns
+     */
+    public <R> R read(Function<? super ScapeGoatTree<K, V>, R> reader) {
+        long stamp = lock.readLock();
+        try {
+            return reader.apply(tree);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs any operation on the tree (bulk loads, removeRange, ...) under the write lock.  The operation must
+     *   not let the tree escape.
+     * @param writer operation to run
+     */
+    public void write(Consumer<? super ScapeGoatTree<K, V>> writer) {
+        long stamp = lock.writeLock();
+        try {
+            writer.accept(tree);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Walks the tree for key without any locking.  The result is only meaningful if the caller's stamp validates
+     *   afterwards.
+     * @param key key to search for
+     * @return node holding key, <code>null</code> if not found, or {@link #NOT_DONE} if the walk went deeper than
+     *   the tree can legitimately be (so it must have seen a tree being relinked)
+     */
+    @SuppressWarnings("unchecked")
+    private Node<K, V> optimisticFind(K key) {
+        //longest walk to try before giving up and taking the read lock: about 40 levels for the default alpha,
+        // over 2000 for alpha = 0.99
+        int maxSteps = tree.heightLimit();
+        Node<K, V> curr = tree.root;
+        for (int steps = 0; curr != null; steps++) {
+            if (steps == maxSteps) return (Node<K, V>) NOT_DONE;
+            int cmp = tree.compare(key, curr.key);
+            if (cmp == 0) return curr;
+            curr = cmp < 0 ? curr.left : curr.right;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,97 @@
+package CoreUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FrozenScapeGoatTree} with the keys in a primitive int[], made by {@link ScapeGoatIntKey#freeze()}.  The
+ *   search compares ints straight out of one array, so there is no unboxing, no <code>compareTo</code> call, and
+ *   nothing for the JIT to turn into a branch: <code>k = 2k + (key &gt; keys[k] ? 1 : 0)</code> compiles to a
+ *   conditional move.
+ * <p>
+ * Java has no software prefetch instruction; the Eytzinger layout gets most of that benefit anyway, since the
+ *   next few levels of a search sit in the same or adjacent cache lines near the top of the array.
+ *
+ * @param <V> data type for the values the tree will be storing
+ */
+public class FrozenScapeGoatIntKey<V> extends FrozenScapeGoatTree<Integer, V> {
+    //keys in Eytzinger order, 1-based
+    private final int[] keys;
+
+    /**
+     * Packs the entries of tree, O(n)
+     * @param tree tree to copy
+     */
+    public FrozenScapeGoatIntKey(ScapeGoatIntKey<V> tree) { this(tree, new int[tree.size() + 1]); }
+
+    /**
+     * Packs the entries of tree, placing each key straight into keys as the base class walks the tree
+     * @param tree tree to copy
+     * @param keys key array to fill, length tree.size() + 1
+     */
+    private FrozenScapeGoatIntKey(ScapeGoatIntKey<V> tree, int[] keys) {
+        super(tree, (key, k) -> keys[k] = key);
+        this.keys = keys;
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int k = lowerBound(key);
+        return k != 0 && keys[k] == key ? (V) values[k] : null;
+    }
+
+    /**
+     * Returns whether key is in the tree (useful since null values are allowed)
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(int key) {
+        int k = lowerBound(key);
+        return k != 0 && keys[k] == key;
+    }
+
+    /**
+     * Returns the values with keys in [start, end], sorted by key, in O(log n + r)
+     * @param start starting key
+     * @param end ending key
+     * @return sorted list of values in the range, empty if there are none
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getRange(int start, int end) {
+        List<V> res = new ArrayList<>();
+        for (int k = lowerBound(start); k != 0 && keys[k] <= end; k = next(k)) {
+            res.add((V) values[k]);
+        }
+        return res;
+    }
+
+    @Override
+    protected Integer keyAt(int k) {
+        return keys[k];
+    }
+
+    @Override
+    protected int lowerBound(Integer key) {
+        return lowerBound(key.intValue());
+    }
+
+    /**
+     * Branchless search for the smallest key &gt;= key
+     * @param key key to search for
+     * @return index of the lower bound, or 0 if every key is smaller
+     */
+    private int lowerBound(int key) {
+        int[] a = keys;
+        //long, so 2k + 1 cannot overflow for n >= 2^30
+        long k = 1;
+        while (k <= n) {
+            k = 2 * k + (key > a[(int) k] ? 1 : 0);
+        }
+        return lowerBoundOf(k);
+    }
+}
@@ -0,0 +1,222 @@
+package CoreUtils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Immutable, read-optimized copy of a {@link ScapeGoatTree}, made by {@link ScapeGoatTree#freeze()}.
+ * <p>
+ * The entries are packed into arrays in Eytzinger (BFS) order: index 1 is the root and the children of index k
+ *   are 2k and 2k+1, so a search needs no pointers at all and the top levels of every search share the same
+ *   few cache lines.  The search loop has no data-dependent branch, only
+ *   <code>k = 2k + (key &gt; keys[k] ? 1 : 0)</code>, and finds the lower bound by undoing the trailing right
+ *   turns at the end.  Index arithmetic past the bottom of the tree is done in long, since 2k + 1 overflows an
+ *   int once there are 2^30 entries or more.
+ * <p>
+ * Later changes to the source tree are not reflected.  Safe to share between threads.
+ *
+ * @param <K> data type for the keys the tree will store.  Ordered the same way as in the source tree.
+ * @param <V> data type for the values the tree will be storing
+ */
+public class FrozenScapeGoatTree<K, V> implements Iterable<Map.Entry<K, V>> {
+    //number of entries; the arrays are 1-based, index 0 is unused
+    protected final int n;
+    protected final Object[] values;
+    //keys in Eytzinger order, null if a subclass stores its keys itself
+    private final Object[] keys;
+    //key order of the source tree, null for natural order
+    private final Comparator<? super K> comparator;
+
+    /**
+     * Packs the entries of tree, O(n)
+     * @param tree tree to copy
+     */
+    public FrozenScapeGoatTree(ScapeGoatTree<K, V> tree) { this(tree, null); }
+
+    /**
+     * Packs the values of tree, and hands each key with its Eytzinger index to keySink, in one pass, O(n)
+     * @param tree tree to copy
+     * @param keySink where each key goes, called as <code>(key, index)</code>; subclasses that store their own
+     *                keys pass one and override {@link #keyAt} and {@link #lowerBound}, null keeps the keys in a
+     *                generic array
+     */
+    protected FrozenScapeGoatTree(ScapeGoatTree<K, V> tree, ObjIntConsumer<? super K> keySink) {
+        n = tree.size();
+        comparator = tree.comparator();
+        keys = keySink == null ? new Object[n + 1] : null;
+        values = new Object[n + 1];
+        //the entries arrive in key order, which is the inorder walk of the implicit tree
+        int k = firstIndex(n);
+        for (Map.Entry<K, V> entry : tree) {
+            if (keySink == null) keys[k] = entry.getKey();
+            else keySink.accept(entry.getKey(), k);
+            values[k] = entry.getValue();
+            k = nextIndex(k, n);
+        }
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if it does not exist
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (key == null) return null;
+        int k = lowerBound(key);
+        return k != 0 && compare(keyAt(k), key) == 0 ? (V) values[k] : null;
+    }
+
+    /**
+     * Returns whether key is in the tree (useful since null values are allowed)
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(K key) {
+        if (key == null) return false;
+        int k = lowerBound(key);
+        return k != 0 && compare(keyAt(k), key) == 0;
+    }
+
+    /**
+     * Returns the values with keys in [start, end], sorted by key, in O(log n + r)
+     * @param start starting key
+     * @param end ending key
+     * @return sorted list of values in the range, empty if there are none
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> getRange(K start, K end) {
+        List<V> res = new ArrayList<>();
+        if (start == null || end == null) return res;
+        for (int k = lowerBound(start); k != 0 && compare(keyAt(k), end) <= 0; k = next(k)) {
+            res.add((V) values[k]);
+        }
+        return res;
+    }
+
+    /**
+     * Returns the number of entries
+     * @return number of entries
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns an iterator over the entries in key order
+     * @return iterator over the entries
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<>() {
+            private int k = first();
+
+            @Override
+            public boolean hasNext() {
+                return k != 0;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Map.Entry<K, V> next() {
+                if (k == 0) throw new NoSuchElementException();
+                Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(keyAt(k), (V) values[k]);
+                k = FrozenScapeGoatTree.this.next(k);
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Returns the key at Eytzinger index k
+     * @param k index, 1..n
+     * @return key at k
+     */
+    @SuppressWarnings("unchecked")
+    protected K keyAt(int k) {
+        return (K) keys[k];
+    }
+
+    /**
+     * Finds the index of the smallest key &gt;= key
+     * @param key key to search for (not null)
+     * @return index of the lower bound, or 0 if every key is smaller
+     */
+    @SuppressWarnings("unchecked")
+    protected int lowerBound(K key) {
+        long k = 1;
+        while (k <= n) {
+            k = 2 * k + (compare(key, (K) keys[(int) k]) > 0 ? 1 : 0);
+        }
+        return lowerBoundOf(k);
+    }
+
+    /**
+     * Compares two keys the way the source tree did
+     * @param a first key
+     * @param b second key
+     * @return negative, zero, or positive as a is less than, equal to, or greater than b
+     */
+    @SuppressWarnings("unchecked")
+    protected int compare(K a, K b) {
+        return comparator == null ? ((Comparable<? super K>) a).compareTo(b) : comparator.compare(a, b);
+    }
+
+    /**
+     * Turns the index a search fell off the bottom at into the lower bound, by undoing the right turns taken
+     *   since the last left turn
+     * @param k index past the bottom of the tree, up to 2n + 1
+     * @return index of the lower bound, or 0
+     */
+    protected static int lowerBoundOf(long k) {
+        return (int) (k >>> (Long.numberOfTrailingZeros(~k) + 1));
+    }
+
+    /**
+     * Returns the index of the first entry in key order
+     * @return index of the smallest key, or 0 if empty
+     */
+    protected int first() {
+        return firstIndex(n);
+    }
+
+    /**
+     * Returns the index after k in key order
+     * @param k current index
+     * @return next index, or 0 after the last one
+     */
+    protected int next(int k) {
+        return nextIndex(k, n);
+    }
+
+    /**
+     * Index of the leftmost node of an n element Eytzinger tree
+     * @param n number of elements
+     * @return index of the smallest element, or 0 if n is 0
+     */
+    private static int firstIndex(int n) {
+        //keep going left: the largest power of two <= n
+        return Integer.highestOneBit(n);
+    }
+
+    /**
+     * Inorder successor of index k in an n element Eytzinger tree
+     * @param k current index
+     * @param n number of elements
+     * @return next index, or 0 after the last one
+     */
+    private static int nextIndex(int k, int n) {
+        if (2L * k + 1 <= n) {
+            k = 2 * k + 1;
+            while (2L * k <= n) k *= 2;
+            return k;
+        }
+        return lowerBoundOf(k);
+    }
+}
@@ -0,0 +1,18 @@
+package CoreUtils;
+
+/**
+ * Receives the entries of a range scan over an int-keyed tree (see {@link ScapeGoatIntKey#forEachInRange}), one
+ *   at a time in scan order, and decides whether the scan goes on.
+ *
+ * @param <V> type of the values being scanned
+ */
+@FunctionalInterface
+public interface IntRangeConsumer<V> {
+    /**
+     * Takes the next entry of the scan
+     * @param key key of the entry
+     * @param value value of the entry (may be <code>null</code> if the tree holds null values)
+     * @return <code>true</code> to continue with the next entry, <code>false</code> to stop the scan here
+     */
+    boolean accept(int key, V value);
+}
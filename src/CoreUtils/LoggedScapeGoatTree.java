@@ -0,0 +1,353 @@
+package CoreUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * {@link ScapeGoatTree} with an append-only write-ahead log of its mutations, so the tree can be recovered after
+ *   a crash by replaying the log on top of the latest snapshot.
+ * <p>
+ * Every {@link #add}, {@link #remove} and {@link #clear} is applied to the tree right away and appended to an
+ *   in-memory batch.  A batch is committed (one sequential write, then one <code>force()</code> depending on
+ *   the {@link SyncPolicy}) once it holds batchSize operations, or when {@link #sync()} or {@link #close()} is
+ *   called.  Operations in a batch that has not been committed yet are lost if the process dies.
+ * <p>
+ * Each record is <code>int length, int crc32, payload</code>, and the payload is an opcode followed by the
+ *   length-prefixed key (and value) bytes.  Recovery stops at the first record that is cut short or fails its
+ *   checksum (a torn write at the time of the crash) and truncates the log there.
+ * <p>
+ * To checkpoint, call {@link #checkpoint} with a writer that makes a durable snapshot of the tree (e.g.
+ *   {@link ScapeGoatIntKeyFile#write}, which forces the file and renames it into place atomically); the log is
+ *   only truncated once the writer has returned.  Replaying a log onto a tree that already contains its operations
+ *   gives the same tree, so a crash between the two steps is harmless.  A snapshot that is not yet on disk when
+ *   the log is truncated is not: a power loss can then lose both.
+ *
+ * @param <K> data type for the keys the tree will store.  Must be comparable.
+ * @param <V> data type for the values the tree will be storing
+ */
+public class LoggedScapeGoatTree<K extends Comparable<K>, V> implements Closeable {
+    /**
+     * When committed batches are forced to disk
+     */
+    public enum SyncPolicy {
+        /** force after every batch, so a committed batch survives a power loss */
+        ALWAYS,
+        /** never force on commit, only on {@link #sync()} and {@link #close()}; survives a process crash only */
+        NEVER
+    }
+
+    /**
+     * Writes a snapshot of the tree for {@link #checkpoint}
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    @FunctionalInterface
+    public interface SnapshotWriter<K extends Comparable<K>, V> {
+        /**
+         * Writes a snapshot of tree.  Must not return until the snapshot is complete and forced to disk, and must
+         *   not leave a partial snapshot in place of the previous one if it fails.
+         * @param tree tree to write, must not be modified
+         * @throws IOException if writing fails
+         */
+        void write(ScapeGoatTree<K, V> tree) throws IOException;
+    }
+
+    private static final byte OP_ADD = 1, OP_REMOVE = 2, OP_CLEAR = 3;
+    //length + crc
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int INITIAL_BATCH_BYTES = 1 << 12;
+
+    private final ScapeGoatTree<K, V> tree;
+    private final FileChannel log;
+    private final BinaryCodec<K> keyCodec;
+    private final BinaryCodec<V> valueCodec;
+    private final SyncPolicy policy;
+    private final int batchSize;
+    private final CRC32 crc = new CRC32();
+    //records not yet written to the log, and how many operations they hold
+    private ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    private int batchOps = 0;
+
+    private LoggedScapeGoatTree(ScapeGoatTree<K, V> tree, FileChannel log, BinaryCodec<K> keyCodec,
+                                BinaryCodec<V> valueCodec, SyncPolicy policy, int batchSize) {
+        this.tree = tree;
+        this.log = log;
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.policy = policy;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Replays the log at logPath (if there is one) onto tree, truncates away any torn tail, and returns a logged
+     *   tree appending to the same log.
+     * @param tree tree to recover into, normally loaded from the latest snapshot.  Must not be used directly
+     *             afterwards, only through the returned wrapper.
+     * @param logPath log file, created if it does not exist
+     * @param keyCodec codec for the keys
+     * @param valueCodec codec for the values
+     * @param policy when to force committed batches to disk
+     * @param batchSize number of operations per commit, 1 commits every operation on its own
+     * @param <K> key type
+     * @param <V> value type
+     * @return logged tree holding the recovered state
+     * @throws IOException if the log cannot be read or written
+     * @throws IllegalArgumentException if batchSize is not positive
+     */
+    public static <K extends Comparable<K>, V> LoggedScapeGoatTree<K, V> recover(
+            ScapeGoatTree<K, V> tree, Path logPath, BinaryCodec<K> keyCodec, BinaryCodec<V> valueCodec,
+            SyncPolicy policy, int batchSize) throws IOException, IllegalArgumentException {
+        if (batchSize < 1) throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        FileChannel log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            LoggedScapeGoatTree<K, V> logged = new LoggedScapeGoatTree<>(tree, log, keyCodec, valueCodec, policy,
+                    batchSize);
+            long end = logged.replay();
+            log.truncate(end);
+            log.position(end);
+            return logged;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds an element to the tree and logs it, see {@link ScapeGoatTree#add}
+     * @param key key to insert
+     * @param value value to associate with key
+     * @throws IOException if committing the batch fails
+     */
+    public void add(K key, V value) throws IOException {
+        if (key == null) return;
+        //encode before touching the tree, so a failing codec leaves the tree and the log in step
+        byte[] keyBytes = keyCodec.encode(key);
+        byte[] valueBytes = value == null ? null : valueCodec.encode(value);
+        tree.add(key, value);
+        int length = 1 + Integer.BYTES + keyBytes.length + Integer.BYTES + (valueBytes == null ? 0 : valueBytes.length);
+        ByteBuffer record = beginRecord(length);
+        record.put(OP_ADD).putInt(keyBytes.length).put(keyBytes);
+        if (valueBytes == null) {
+            record.putInt(-1);
+        } else {
+            record.putInt(valueBytes.length).put(valueBytes);
+        }
+        endRecord(length);
+    }
+
+    /**
+     * Removes an element from the tree and logs it, see {@link ScapeGoatTree#remove}
+     * @param key key to remove
+     * @throws IOException if committing the batch fails
+     */
+    public void remove(K key) throws IOException {
+        if (key == null) return;
+        byte[] keyBytes = keyCodec.encode(key);
+        tree.remove(key);
+        int length = 1 + Integer.BYTES + keyBytes.length;
+        beginRecord(length).put(OP_REMOVE).putInt(keyBytes.length).put(keyBytes);
+        endRecord(length);
+    }
+
+    /**
+     * Empties the tree and logs it
+     * @throws IOException if committing the batch fails
+     */
+    public void clear() throws IOException {
+        tree.clear();
+        beginRecord(1).put(OP_CLEAR);
+        endRecord(1);
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if it does not exist
+     */
+    public V get(K key) {
+        return tree.get(key);
+    }
+
+    /**
+     * Returns the number of nodes in the tree
+     * @return number of nodes
+     */
+    public int size() {
+        return tree.size();
+    }
+
+    /**
+     * Runs any read-only operation on the tree (range queries, iteration, writing a snapshot, ...).  The
+     *   function must not modify the tree, since that would bypass the log.
+     * @param reader read-only operation
+     * @param <R> result type
+     * @return whatever reader returns
+     */
+    public <R> R read(Function<? super ScapeGoatTree<K, V>, R> reader) {
+        return reader.apply(tree);
+    }
+
+    /**
+     * Commits the current batch and forces the log to disk, regardless of the policy
+     * @throws IOException if writing fails
+     */
+    public void sync() throws IOException {
+        writeBatch();
+        log.force(false);
+    }
+
+    /**
+     * Writes a snapshot of the tree with writer, then empties the log.  If writer throws, the log is left as it
+     *   is.
+     * @param writer writes a durable snapshot, see {@link SnapshotWriter#write}
+     * @throws IOException if writing the snapshot or truncating fails
+     */
+    public void checkpoint(SnapshotWriter<K, V> writer) throws IOException {
+        writer.write(tree);
+        truncate();
+    }
+
+    /**
+     * Empties the log, after a snapshot of the current tree has been written and forced to disk (see
+     *   {@link #checkpoint}, which does both in order).  Pending operations are dropped from the log since the
+     *   snapshot already holds them.
+     * @throws IOException if truncating fails
+     */
+    public void truncate() throws IOException {
+        batch.clear();
+        batchOps = 0;
+        log.truncate(0);
+        log.position(0);
+        log.force(true);
+    }
+
+    /**
+     * Commits the current batch, forces the log to disk and closes it
+     * @throws IOException if writing fails
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Makes room for a record in the batch and skips its header, which {@link #endRecord} fills in
+     * @param length payload length
+     * @return batch buffer, positioned at the start of the payload
+     */
+    private ByteBuffer beginRecord(int length) {
+        int needed = RECORD_HEADER_BYTES + length;
+        if (batch.remaining() < needed) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * batch.capacity(), batch.position() + needed));
+            batch.flip();
+            bigger.put(batch);
+            batch = bigger;
+        }
+        return batch.position(batch.position() + RECORD_HEADER_BYTES);
+    }
+
+    /**
+     * Fills in the header of the record just written, and commits the batch if it is full
+     * @param length payload length
+     * @throws IOException if committing fails
+     */
+    private void endRecord(int length) throws IOException {
+        int start = batch.position() - length;
+        crc.reset();
+        crc.update(batch.array(), start, length);
+        batch.putInt(start - RECORD_HEADER_BYTES, length);
+        batch.putInt(start - Integer.BYTES, (int) crc.getValue());
+        if (++batchOps >= batchSize) {
+            writeBatch();
+            if (policy == SyncPolicy.ALWAYS) log.force(false);
+        }
+    }
+
+    /**
+     * Writes the batch to the log with one write and empties it
+     * @throws IOException if writing fails
+     */
+    private void writeBatch() throws IOException {
+        batch.flip();
+        while (batch.hasRemaining()) log.write(batch);
+        batch.clear();
+        batchOps = 0;
+    }
+
+    /**
+     * Applies every intact record in the log to the tree, in order
+     * @return position just after the last intact record
+     * @throws IOException if reading fails
+     */
+    private long replay() throws IOException {
+        long size = log.size(), pos = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        while (pos + RECORD_HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, pos);
+            int length = header.getInt(0), checksum = header.getInt(Integer.BYTES);
+            if (length < 1 || length > size - pos - RECORD_HEADER_BYTES) break; // torn tail
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, pos + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break; // torn tail
+            payload.flip();
+            apply(payload);
+            pos += RECORD_HEADER_BYTES + length;
+        }
+        return pos;
+    }
+
+    /**
+     * Applies one logged operation to the tree
+     * @param payload record payload
+     * @throws IOException if the opcode is unknown
+     */
+    private void apply(ByteBuffer payload) throws IOException {
+        byte op = payload.get();
+        switch (op) {
+            case OP_ADD -> {
+                K key = keyCodec.decode(field(payload, payload.getInt()));
+                int valueLength = payload.getInt();
+                tree.add(key, valueLength < 0 ? null : valueCodec.decode(field(payload, valueLength)));
+            }
+            case OP_REMOVE -> tree.remove(keyCodec.decode(field(payload, payload.getInt())));
+            case OP_CLEAR -> tree.clear();
+            default -> throw new IOException("Unknown log opcode " + op);
+        }
+    }
+
+    /**
+     * Returns a buffer over the next length bytes of payload, and skips past them
+     * @param payload record payload
+     * @param length length of the field
+     * @return buffer whose remaining bytes are the field
+     */
+    private static ByteBuffer field(ByteBuffer payload, int length) {
+        ByteBuffer res = payload.slice();
+        res.limit(length);
+        payload.position(payload.position() + length);
+        return res;
+    }
+
+    private void readFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = log.read(buf, pos);
+            if (n < 0) throw new IOException("Unexpected end of log");
+            pos += n;
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package CoreUtils;
 
+import CoreUtils.UsefulContainers.DisjointSet;
 import CoreUtils.UsefulContainers.Edge;
 import CoreUtils.UsefulContainers.iPair;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -12,48 +15,176 @@ import java.util.List;
  *   Any other containers used must be ones you created.</bold>
  */
 public class MST {
+    //distance marking a vertex that is already in the tree (weights are never negative)
+    private static final double IN_TREE = -1;
+    //digit size of the radix sort in sparseMST: 6 passes over a 64 bit key, 2048 buckets each
+    private static final int RADIX_BITS = 11;
+    private static final long RADIX_MASK = (1 << RADIX_BITS) - 1;
+
     /**
      * Returns the MST of the given graph, optimized for a dense graph.  Assumes a connected graph.
+     * <p>
+     * O(V^2) Prim over the matrix: each step adds the closest vertex to the tree, then scans its row once, both
+     *   to lower the other vertices' distances to the tree and to pick the next closest vertex.  That scan is also
+     *   where the row is validated, so the matrix is read exactly once.  Uses only a <code>double[]</code> of
+     *   distances and an <code>int[]</code> of parents.
      *
      * @param weights square matrix representing positive edge weights between every vertex
      * @return MST: list of pairs of indices each indicating an edge between those two indices
      * @throws IllegalArgumentException if weights is not square or edges are not positive
      */
     public static List<iPair> denseMST(double[][] weights) throws IllegalArgumentException {
-        //validate weighs matrix (already done)
-        int n = weights.length;
-        for(int i=0; i<n; i++){
-            if(weights[i].length != n)
-                throw new IllegalArgumentException("Weights graph not square in row " +
-                        i + ", expected " + n + ", actual is " + weights[i].length);
-            for(int j=0; j<n; j++){
-                if(weights[i][j] < 0)
+        return prim(weights, null, weights.length);
+    }
+
+    /**
+     * Returns the MST of the given graph, optimized for a dense graph, with the weights in one flat row-major
+     *   array (the weight between i and j at <code>weights[i * n + j]</code>), which saves the row pointer
+     *   lookups of a <code>double[][]</code>.  Assumes a connected graph.  See {@link #denseMST(double[][])}.
+     *
+     * @param weights n * n edge weights, row by row
+     * @param n number of vertices
+     * @return MST: list of pairs of indices each indicating an edge between those two indices
+     * @throws IllegalArgumentException if weights does not hold n * n entries or edges are not positive
+     */
+    public static List<iPair> denseMST(double[] weights, int n) throws IllegalArgumentException {
+        if (n < 0 || weights.length != (long) n * n)
+            throw new IllegalArgumentException("Weights array has " + weights.length +
+                    " entries, expected " + n + " * " + n);
+        return prim(null, weights, n);
+    }
+
+    /**
+     * Prim's algorithm over either a matrix (rows) or a flat row-major array (flat), whichever is not null
+     * @param rows square weight matrix, or <code>null</code>
+     * @param flat flat weight array, or <code>null</code>
+     * @param n number of vertices
+     * @return MST edges as (parent, vertex) pairs, in the order the vertices joined the tree
+     * @throws IllegalArgumentException if a row has the wrong length or a weight is negative
+     */
+    private static List<iPair> prim(double[][] rows, double[] flat, int n) throws IllegalArgumentException {
+        List<iPair> res = new ArrayList<>(Math.max(n - 1, 0));
+        if (n == 0) return res;
+        //distance from each vertex to the tree, IN_TREE once it is in it
+        double[] dist = new double[n];
+        int[] parent = new int[n];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+
+        for (int u = 0; u != -1; ) {
+            dist[u] = IN_TREE;
+            if (parent[u] != -1) res.add(new iPair(parent[u], u));
+            double[] row;
+            int base;
+            if (rows != null) {
+                row = rows[u];
+                if (row.length != n)
+                    throw new IllegalArgumentException("Weights graph not square in row " +
+                            u + ", expected " + n + ", actual is " + row.length);
+                base = 0;
+            } else {
+                row = flat;
+                base = u * n;
+            }
+            //relax u's edges and find the next closest vertex in the same pass
+            int next = -1;
+            double best = Double.POSITIVE_INFINITY;
+            for (int v = 0; v < n; v++) {
+                double w = row[base + v];
+                if (w < 0)
                     throw new IllegalArgumentException("Edge weight < 0 (" +
-                            weights[i][j] + ") at y, x=" + i + ", " + j);
+                            w + ") at y, x=" + u + ", " + v);
+                double d = dist[v];
+                if (d == IN_TREE) continue;
+                if (w < d) {
+                    d = w;
+                    dist[v] = w;
+                    parent[v] = u;
+                }
+                //a vertex no edge reaches still gets picked, so every row is read and validated
+                if (next == -1 || d < best) {
+                    best = d;
+                    next = v;
+                }
             }
+            u = next;
         }
-
-        //todo
-        return null;
+        return res;
     }
 
     /**
      * Returns the MST of the given graph, optimized for a sparse graph.  Assumes a connected graph.
+     * <p>
+     * Kruskal: the edges are copied once into primitive arrays (endpoints, and the weights' bit patterns, which
+     *   sort like the weights themselves since no weight is negative), ordered by an LSD radix sort of those bits
+     *   instead of comparing Edge objects, and then accepted in order through a {@link DisjointSet} until n - 1
+     *   have been taken.  O(E + V α(V)) on top of the linear sort.
      *
      * @param edgeList edge list
      * @param n number of vertices
      * @return MST: list of pairs of indices each indicating an edge between those two indices
-     * @throws IllegalArgumentException if edges are not positive
+     * @throws IllegalArgumentException if edges are not positive or an edge endpoint is not in [0, n)
      */
     public static List<iPair> sparseMST(List<Edge> edgeList, int n) throws IllegalArgumentException {
-        //validate edge weighs (already done)
+        //validate the edges while copying them out
+        int m = edgeList.size();
+        int[] from = new int[m], to = new int[m];
+        long[] bits = new long[m];
+        int i = 0;
         for(var e : edgeList){
             if(e.w < 0)
                 throw new IllegalArgumentException("Edge weight < 0 (" +
                         e.w + ") between " + e.a + " and " + e.b);
+            if(e.a < 0 || e.a >= n || e.b < 0 || e.b >= n)
+                throw new IllegalArgumentException("Edge between " + e.a + " and " + e.b +
+                        " has an endpoint outside [0, " + n + ")");
+            from[i] = e.a;
+            to[i] = e.b;
+            //-0.0 has the sign bit set, it has to sort with 0.0
+            bits[i++] = e.w == 0 ? 0 : Double.doubleToLongBits(e.w);
         }
 
-        //todo
-        return null;
+        List<iPair> res = new ArrayList<>(Math.max(n - 1, 0));
+        int[] order = radixOrder(bits);
+        DisjointSet ds = new DisjointSet(n);
+        for (int k = 0; k < m && res.size() < n - 1; k++) {
+            int e = order[k];
+            if (ds.union(from[e], to[e])) res.add(new iPair(from[e], to[e]));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the permutation that sorts keys (as signed longs, all non-negative here), stable, by an LSD
+     *   radix sort of RADIX_BITS per pass.  Passes where every key has the same digit, such as the high bits
+     *   shared by weights of similar magnitude, are skipped.
+     * @param keys keys to sort, overwritten
+     * @return indices of keys in sorted order
+     */
+    private static int[] radixOrder(long[] keys) {
+        int m = keys.length;
+        int[] order = new int[m], nextOrder = new int[m];
+        for (int i = 0; i < m; i++) order[i] = i;
+        if (m < 2) return order;
+        long[] nextKeys = new long[m];
+        int[] count = new int[(1 << RADIX_BITS) + 1];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(count, 0);
+            for (long k : keys) count[(int) (k >>> shift & RADIX_MASK) + 1]++;
+            if (count[(int) (keys[0] >>> shift & RADIX_MASK) + 1] == m) continue;
+            for (int d = 1; d < count.length; d++) count[d] += count[d - 1];
+            for (int i = 0; i < m; i++) {
+                int pos = count[(int) (keys[i] >>> shift & RADIX_MASK)]++;
+                nextKeys[pos] = keys[i];
+                nextOrder[pos] = order[i];
+            }
+            long[] tempKeys = keys;
+            keys = nextKeys;
+            nextKeys = tempKeys;
+            int[] tempOrder = order;
+            order = nextOrder;
+            nextOrder = tempOrder;
+        }
+        return order;
     }
 }
@@ -0,0 +1,121 @@
+package CoreUtils;
+
+/**
+ * ScapeGoatIntKey over numeric values that answers sum, min, and max over a key range in O(log n).  Null values
+ *   are allowed and are left out of every aggregate.
+ *
+ * @apiNote sums are accumulated as doubles, so sums of longs beyond 2^53 lose precision.  Use an
+ *   {@link AggregatingScapeGoatIntKey} with an exact monoid if that matters.
+ *
+ * @param <V> numeric data type for the values the tree will be storing
+ */
+public class NumericScapeGoatIntKey<V extends Number> extends AggregatingScapeGoatIntKey<V, NumericScapeGoatIntKey.Stats> {
+    /**
+     * Sum, min, and max of a run of values.  Immutable.
+     */
+    public static class Stats {
+        //summary of no values
+        public static final Stats EMPTY = new Stats(0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+        public final double sum, min, max;
+
+        //simple constructor
+        public Stats(double sum, double min, double max) {
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Whether this summarizes no (non-null) values
+         * @return true if there are no values
+         */
+        public boolean isEmpty() {
+            return min > max;
+        }
+
+        @Override
+        public String toString() { return "Stats{" + "sum=" + sum + ", min=" + min + ", max=" + max + '}'; }
+    }
+
+    /**
+     * Sum/min/max monoid over numbers, skipping nulls
+     */
+    private static final class StatsMonoid<V extends Number> implements RangeMonoid<V, Stats> {
+        @Override
+        public Stats identity() { return Stats.EMPTY; }
+
+        @Override
+        public Stats lift(V value) {
+            if (value == null) return Stats.EMPTY;
+            double d = value.doubleValue();
+            return new Stats(d, d, d);
+        }
+
+        @Override
+        public Stats combine(Stats left, Stats right) {
+            if (left.isEmpty()) return right;
+            if (right.isEmpty()) return left;
+            return new Stats(left.sum + right.sum, Math.min(left.min, right.min), Math.max(left.max, right.max));
+        }
+    }
+
+    /**
+     * Constructs an empty tree
+     */
+    public NumericScapeGoatIntKey() {
+        super(new StatsMonoid<>());
+    }
+
+    /**
+     * Creates a new empty NumericScapeGoatIntKey
+     * @return new empty tree
+     */
+    @Override
+    protected NumericScapeGoatIntKey<V> newTree() {
+        return new NumericScapeGoatIntKey<>();
+    }
+
+    /**
+     * Splits this tree in two, see {@link ScapeGoatTree#split}
+     * @param key first key of the returned tree
+     * @return new tree holding the entries with keys &gt;= key
+     * @throws IllegalArgumentException if key is <code>null</code>
+     */
+    @Override
+    public NumericScapeGoatIntKey<V> split(Integer key) throws IllegalArgumentException {
+        return (NumericScapeGoatIntKey<V>) super.split(key);
+    }
+
+    /**
+     * Returns the sum of the values with keys in [start, end] in O(log n)
+     * @param start starting key
+     * @param end ending key
+     * @return sum of the values in the range, 0 if there are none
+     */
+    public double sumRange(int start, int end) {
+        return aggregateRange(start, end).sum;
+    }
+
+    /**
+     * Returns the smallest value with a key in [start, end] in O(log n)
+     * @param start starting key
+     * @param end ending key
+     * @return smallest value in the range, or <code>null</code> if there are none
+     */
+    public Double minRange(int start, int end) {
+        Stats stats = aggregateRange(start, end);
+        return stats.isEmpty() ? null : stats.min;
+    }
+
+    /**
+     * Returns the largest value with a key in [start, end] in O(log n)
+     * @param start starting key
+     * @param end ending key
+     * @return largest value in the range, or <code>null</code> if there are none
+     */
+    public Double maxRange(int start, int end) {
+        Stats stats = aggregateRange(start, end);
+        return stats.isEmpty() ? null : stats.max;
+    }
+}
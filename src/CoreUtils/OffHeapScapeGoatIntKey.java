@@ -0,0 +1,269 @@
+package CoreUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Scapegoat tree with int keys and long values whose nodes live outside the Java heap, so a tree of hundreds of
+ *   millions of entries adds nothing for the garbage collector to scan or copy.  The balancing, rebuilds and
+ *   in-order walk are the ones {@link PrimitiveScapeGoatIntKey} uses, inherited from their common base class and
+ *   run over the records below; int values fit in the long payload.
+ * <p>
+ * Each node is a fixed-width record in a direct ByteBuffer:
+ * <pre>
+ *   offset  0  int  key
+ *   offset  4  int  left     slot of the left child, -1 for none
+ *   offset  8  int  right    slot of the right child, -1 for none
+ *   offset 12  int  parent   slot of the parent, -1 for the root
+ *   offset 16  int  size     subtree size, 0 for a free slot
+ *   offset 24  long value
+ * </pre>
+ * Records are allocated in chunks of 2^20 slots (32MB) so the tree grows without copying and is not limited by
+ *   the 2GB size of a single buffer.  Slots freed by remove are reused through a free list threaded through
+ *   <code>left</code>.  Whenever the whole tree is rebuilt, the live records are first moved down into the lowest
+ *   slots ({@link #rebuildRoot}, the one part specific to this storage), so the free list is emptied and chunks no
+ *   longer needed are released.
+ * <p>
+ * The native memory is returned when the tree (and so its buffers) is garbage collected, or right away for the
+ *   chunks dropped by {@link #clear()} and compaction once they are collected.
+ */
+public class OffHeapScapeGoatIntKey extends SlotScapeGoatTree {
+    //record layout
+    private static final int KEY = 0, LEFT = 4, RIGHT = 8, PARENT = 12, SIZE = 16, VALUE = 24;
+    private static final int RECORD_BYTES = 32;
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT, SLOT_MASK = CHUNK_SLOTS - 1;
+
+    //allocated chunks; chunks[i] holds slots [i * CHUNK_SLOTS, (i + 1) * CHUNK_SLOTS)
+    private ByteBuffer[] chunks = new ByteBuffer[0];
+    private int chunkCount = 0;
+
+    /**
+     * Adds an element to the tree.  Does nothing if key is already in the tree.
+     * @param key key to insert
+     * @param value value to associate with key
+     */
+    public void add(int key, long value) {
+        int curr = root, par = NIL, depth = 0;
+        boolean goLeft = false;
+        while (curr != NIL) {
+            par = curr;
+            int k = key(curr);
+            if (key == k) return; // duplicate
+            depth++;
+            goLeft = key < k;
+            curr = goLeft ? left(curr) : right(curr);
+        }
+        int node = attach(par, goLeft);
+        setKey(node, key);
+        setValue(node, value);
+        rebalance(node, depth);
+    }
+
+    /**
+     * Removes an element from the tree.  Does nothing if key is not in the tree.
+     * @param key key to remove
+     */
+    public void remove(int key) {
+        int target = findSlot(key);
+        if (target != NIL) removeSlot(target);
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @param defaultValue value to return if key is not in the tree
+     * @return value associated with key, or defaultValue if key is not in the tree
+     */
+    public long get(int key, long defaultValue) {
+        int slot = findSlot(key);
+        return slot == NIL ? defaultValue : value(slot);
+    }
+
+    /**
+     * Returns whether key is in the tree
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(int key) {
+        return findSlot(key) != NIL;
+    }
+
+    /**
+     * Returns the values associated with the given range of keys, inclusive ( [start, end] ), sorted by key.
+     *   O(log n + r): one descent to the first key in range, then successor steps along the parent links.
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return a sorted array of values in the range, empty if no key is in that range
+     */
+    public long[] getRange(int start, int end) {
+        long[] res = new long[0];
+        if (start > end) return res;
+        int count = 0;
+        for (int slot = ceilingSlot(start); slot != NIL && key(slot) <= end; slot = nextSlot(slot)) {
+            if (count == res.length) res = Arrays.copyOf(res, Math.max(16, 2 * count));
+            res[count++] = value(slot);
+        }
+        return count == res.length ? res : Arrays.copyOf(res, count);
+    }
+
+    /**
+     * Returns the number of bytes of native memory currently allocated for node records
+     * @return allocated bytes
+     */
+    public long allocatedBytes() {
+        return (long) chunkCount * CHUNK_SLOTS * RECORD_BYTES;
+    }
+
+    /**
+     * Empties the tree.  Keeps the first chunk for reuse and drops the rest.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        releaseChunksAbove(Math.min(chunkCount, 1));
+    }
+
+    /**
+     * Finds the slot holding key
+     * @param key key to search for
+     * @return slot of key, or NIL
+     */
+    private int findSlot(int key) {
+        int curr = root;
+        while (curr != NIL) {
+            int k = key(curr);
+            if (key == k) break;
+            curr = key < k ? left(curr) : right(curr);
+        }
+        return curr;
+    }
+
+    /**
+     * Finds the slot with the smallest key greater than or equal to key
+     * @param key key to search for
+     * @return ceiling slot, or NIL
+     */
+    private int ceilingSlot(int key) {
+        int best = NIL, curr = root;
+        while (curr != NIL) {
+            int k = key(curr);
+            if (key == k) return curr;
+            if (key < k) {
+                best = curr;
+                curr = left(curr);
+            } else {
+                curr = right(curr);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compacts the records into the lowest slots, then rebuilds the whole tree
+     */
+    @Override
+    void rebuildRoot() {
+        compact();
+        super.rebuildRoot();
+    }
+
+    /**
+     * Moves every live record into slots [0, nodeCount), filling free slots from the top down, and releases the
+     *   chunks that are no longer needed.  O(slotsUsed), which is O(maxNodeCount).
+     */
+    private void compact() {
+        int nodeCount = size();
+        if (slotsUsed == nodeCount) return;
+        int hi = slotsUsed - 1;
+        for (int lo = 0; lo < nodeCount; lo++) {
+            if (size(lo) != 0) continue;
+            while (size(hi) == 0) hi--;
+            move(hi--, lo);
+        }
+        slotsUsed = nodeCount;
+        freeHead = NIL;
+        //keep one spare chunk so a tree hovering around a chunk boundary does not allocate on every rebuild
+        releaseChunksAbove(Math.min(chunkCount, (int) ((nodeCount + (long) SLOT_MASK) >>> CHUNK_SHIFT) + 1));
+    }
+
+    /**
+     * Moves a live record into a free slot and repoints its parent and children at the new slot
+     * @param from live slot
+     * @param to free slot
+     */
+    private void move(int from, int to) {
+        ByteBuffer src = chunks[from >>> CHUNK_SHIFT], dst = chunks[to >>> CHUNK_SHIFT];
+        int srcOffset = (from & SLOT_MASK) * RECORD_BYTES, dstOffset = (to & SLOT_MASK) * RECORD_BYTES;
+        dst.put(dstOffset, src, srcOffset, RECORD_BYTES);
+        setSize(from, 0);
+        int l = left(to), r = right(to), p = parent(to);
+        if (l != NIL) setParent(l, to);
+        if (r != NIL) setParent(r, to);
+        if (p == NIL) root = to;
+        else if (left(p) == from) setLeft(p, to);
+        else setRight(p, to);
+    }
+
+    @Override
+    void reserve(int slot) {
+        if (slot >>> CHUNK_SHIFT == chunkCount) addChunk();
+    }
+
+    @Override
+    void copyEntry(int from, int to) {
+        setKey(to, key(from));
+        setValue(to, value(from));
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) chunks = Arrays.copyOf(chunks, Math.max(4, 2 * chunkCount));
+        chunks[chunkCount++] = ByteBuffer.allocateDirect(CHUNK_SLOTS * RECORD_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Drops the chunks past the first keep, so their native memory can be reclaimed
+     * @param keep number of chunks to keep
+     */
+    private void releaseChunksAbove(int keep) {
+        Arrays.fill(chunks, keep, chunkCount, null);
+        chunkCount = keep;
+    }
+
+    //field accessors: slot -> chunk and byte offset within it
+
+    private int getInt(int slot, int field) {
+        return chunks[slot >>> CHUNK_SHIFT].getInt((slot & SLOT_MASK) * RECORD_BYTES + field);
+    }
+
+    private void putInt(int slot, int field, int x) {
+        chunks[slot >>> CHUNK_SHIFT].putInt((slot & SLOT_MASK) * RECORD_BYTES + field, x);
+    }
+
+    private int key(int slot) { return getInt(slot, KEY); }
+    @Override
+    int left(int slot) { return getInt(slot, LEFT); }
+    @Override
+    int right(int slot) { return getInt(slot, RIGHT); }
+    @Override
+    int parent(int slot) { return getInt(slot, PARENT); }
+    @Override
+    int size(int slot) { return getInt(slot, SIZE); }
+    private long value(int slot) {
+        return chunks[slot >>> CHUNK_SHIFT].getLong((slot & SLOT_MASK) * RECORD_BYTES + VALUE);
+    }
+
+    private void setKey(int slot, int x) { putInt(slot, KEY, x); }
+    @Override
+    void setLeft(int slot, int x) { putInt(slot, LEFT, x); }
+    @Override
+    void setRight(int slot, int x) { putInt(slot, RIGHT, x); }
+    @Override
+    void setParent(int slot, int x) { putInt(slot, PARENT, x); }
+    @Override
+    void setSize(int slot, int x) { putInt(slot, SIZE, x); }
+    private void setValue(int slot, long x) {
+        chunks[slot >>> CHUNK_SHIFT].putLong((slot & SLOT_MASK) * RECORD_BYTES + VALUE, x);
+    }
+}
@@ -0,0 +1,400 @@
+package CoreUtils;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Persistent (copy-on-write) scapegoat tree.  Nodes are immutable and never change once created: add and remove
+ *   copy only the O(log n) nodes on the path they touch and share everything else, and rebuilds produce brand
+ *   new subtrees instead of relinking old nodes.  That makes {@link #snapshot()} O(1): a snapshot is just the
+ *   current root, and it stays valid and unchanged no matter what the tree does afterwards.
+ * <p>
+ * Balancing follows {@link ScapeGoatTree} (same alpha, same insert and remove triggers, same floor(size/2)
+ *   rebuild shape).  Nodes have no parent pointers, since a shared node can have many parents across versions.
+ *
+ * @param <K> data type for the keys the tree will store.  Must be comparable.
+ * @param <V> data type for the values the tree will be storing
+ */
+public class PersistentScapeGoatTree<K extends Comparable<K>, V> {
+    /**
+     * Immutable node.  Holds its key, value, children, and subtree size.
+     *
+     * @param <E> type for the keys to hold
+     * @param <A> type for the values to hold
+     */
+    private static final class PNode<E, A> {
+        final E key;
+        final A value;
+        final PNode<E, A> left, right;
+        final int size;
+
+        //simple constructor, size is derived from the children
+        PNode(E key, A value, PNode<E, A> left, PNode<E, A> right) {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + sizeOf(left) + sizeOf(right);
+        }
+
+        /**
+         * Copy of this node with a different left child
+         * @param newLeft new left child
+         * @return new node
+         */
+        PNode<E, A> withLeft(PNode<E, A> newLeft) { return new PNode<>(key, value, newLeft, right); }
+
+        /**
+         * Copy of this node with a different right child
+         * @param newRight new right child
+         * @return new node
+         */
+        PNode<E, A> withRight(PNode<E, A> newRight) { return new PNode<>(key, value, left, newRight); }
+    }
+
+    /**
+     * Immutable point-in-time view of the tree, returned by {@link #snapshot()}.  Unaffected by any later change
+     *   to the tree it came from, and safe to share between threads.
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    public static final class Snapshot<K extends Comparable<K>, V> implements Iterable<Map.Entry<K, V>> {
+        private final PNode<K, V> root;
+
+        private Snapshot(PNode<K, V> root) { this.root = root; }
+
+        /**
+         * Returns the value associated with key in this snapshot
+         * @param key key to search for
+         * @return value associated with key, or <code>null</code> if it does not exist
+         */
+        public V get(K key) {
+            PNode<K, V> node = find(root, key);
+            return node == null ? null : node.value;
+        }
+
+        /**
+         * Returns the values with keys in [from, to], sorted by key, in O(log n + r)
+         * @param from starting key
+         * @param to ending key
+         * @return sorted list of values in the range, empty if there are none
+         */
+        public List<V> getRange(K from, K to) {
+            return collectRange(root, from, to);
+        }
+
+        /**
+         * Returns the number of entries in this snapshot
+         * @return number of entries
+         */
+        public int size() {
+            return sizeOf(root);
+        }
+
+        /**
+         * Returns an iterator over the entries of this snapshot in key order.  Since the snapshot never changes,
+         *   the iterator never fails.
+         * @return iterator over the entries
+         */
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new Iterator<>() {
+                //nodes whose left subtree has been handled but which are not yet returned
+                private final List<PNode<K, V>> stack = new ArrayList<>();
+                { pushLeft(root); }
+
+                @Override
+                public boolean hasNext() {
+                    return !stack.isEmpty();
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    if (stack.isEmpty()) throw new NoSuchElementException();
+                    PNode<K, V> node = stack.remove(stack.size() - 1);
+                    pushLeft(node.right);
+                    return new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+                }
+
+                private void pushLeft(PNode<K, V> node) {
+                    for (; node != null; node = node.left) stack.add(node);
+                }
+            };
+        }
+    }
+
+    //current version of the tree
+    private PNode<K, V> root;
+    //max node count, see ScapeGoatTree.maxNodeCount
+    private int maxNodeCount = 0;
+    //floor(log_(1/alpha)(node count)), see ScapeGoatTree.moveDepthBound
+    private int depthBound = 0;
+    //scratch space for the path of the current add/remove (root first), reused between calls
+    private List<PNode<K, V>> path = new ArrayList<>();
+
+    /**
+     * Constructs an empty persistent tree
+     */
+    public PersistentScapeGoatTree() { root = null; }
+
+    /**
+     * Returns an immutable view of the tree as it is right now, in O(1)
+     * @return snapshot of the current version
+     */
+    public Snapshot<K, V> snapshot() {
+        return new Snapshot<>(root);
+    }
+
+    /**
+     * Adds an element to the tree, copying the nodes on the insertion path.  Passing key=null, or a key that is
+     *   already in the tree, does nothing.
+     * @param key key to insert
+     * @param value value to associate with key
+     */
+    public void add(K key, V value) {
+        if (key == null) return;
+        path.clear();
+        for (PNode<K, V> curr = root; curr != null; ) {
+            int cmp = key.compareTo(curr.key);
+            if (cmp == 0) return; // duplicate
+            path.add(curr);
+            curr = cmp < 0 ? curr.left : curr.right;
+        }
+        int depth = path.size();
+        int nodeCount = sizeOf(root) + 1;
+
+        //find the scapegoat on the old path, using the sizes it will have once the key is in
+        int scapegoat = -1;
+        depthBound = ScapeGoatTree.moveDepthBound(ScapeGoatTree.DEFAULT_DEPTH_POWERS, depthBound, nodeCount);
+        if (depth + 1 > depthBound) {
+            int childSize = 1;
+            for (int i = depth - 1; i >= 0; i--) {
+                int parentSize = path.get(i).size + 1;
+                if (childSize > ScapeGoatTreeInterface.ALPHA_THRESHOLD * parentSize) {
+                    scapegoat = i;
+                    break;
+                }
+                childSize = parentSize;
+            }
+        }
+
+        PNode<K, V> subtree;
+        int top;
+        if (scapegoat >= 0) {
+            //build the scapegoat's subtree fresh, with the new entry included
+            PNode<K, V> old = path.get(scapegoat);
+            List<PNode<K, V>> nodes = new ArrayList<>(old.size + 1);
+            inorder(old, nodes);
+            int pos = 0;
+            while (pos < nodes.size() && nodes.get(pos).key.compareTo(key) < 0) pos++;
+            nodes.add(pos, new PNode<>(key, value, null, null));
+            subtree = build(nodes, 0, nodes.size() - 1);
+            top = scapegoat;
+        } else {
+            subtree = new PNode<>(key, value, null, null);
+            top = depth;
+        }
+        root = copyPath(key, subtree, top);
+        if (nodeCount > maxNodeCount) maxNodeCount = nodeCount;
+    }
+
+    /**
+     * Removes an element from the tree, copying the nodes on the path to it.  Does nothing if key is not in the
+     *   tree.  Uses the successor node like {@link ScapeGoatTree#remove}, and rebuilds the whole tree (as fresh
+     *   nodes) once nodeCount drops to alpha * maxNodeCount.
+     * @param key key to remove
+     */
+    public void remove(K key) {
+        if (key == null) return;
+        path.clear();
+        PNode<K, V> target = root;
+        while (target != null) {
+            int cmp = key.compareTo(target.key);
+            if (cmp == 0) break;
+            path.add(target);
+            target = cmp < 0 ? target.left : target.right;
+        }
+        if (target == null) return;
+
+        PNode<K, V> replacement;
+        if (target.left != null && target.right != null) {
+            //the successor's entry takes target's place, and the successor is removed from the right subtree
+            PNode<K, V> succ = target.right;
+            while (succ.left != null) succ = succ.left;
+            replacement = new PNode<>(succ.key, succ.value, target.left, removeMin(target.right));
+        } else {
+            replacement = target.left != null ? target.left : target.right;
+        }
+        root = copyPath(key, replacement, path.size());
+
+        int nodeCount = sizeOf(root);
+        if (nodeCount <= ScapeGoatTreeInterface.ALPHA_THRESHOLD * maxNodeCount) {
+            List<PNode<K, V>> nodes = new ArrayList<>(nodeCount);
+            inorder(root, nodes);
+            root = build(nodes, 0, nodes.size() - 1);
+            maxNodeCount = nodeCount;
+        }
+    }
+
+    /**
+     * Returns the value associated with key in the current version
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if it does not exist
+     */
+    public V get(K key) {
+        PNode<K, V> node = find(root, key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Returns the values with keys in [from, to] in the current version, sorted by key
+     * @param from starting key
+     * @param to ending key
+     * @return sorted list of values in the range, empty if there are none
+     */
+    public List<V> getRange(K from, K to) {
+        return collectRange(root, from, to);
+    }
+
+    /**
+     * Returns the number of entries in the current version
+     * @return number of entries
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Empties the tree.  Existing snapshots are unaffected.
+     */
+    public void clear() {
+        root = null;
+        maxNodeCount = 0;
+    }
+
+    /**
+     * Copies path[0..top) bottom-up so that the child at depth top becomes subtree
+     * @param key key that was searched for (decides which child each path node descended into)
+     * @param subtree new subtree to hang at depth top
+     * @param top depth of subtree (0 replaces the root)
+     * @return new root
+     */
+    private PNode<K, V> copyPath(K key, PNode<K, V> subtree, int top) {
+        for (int i = top - 1; i >= 0; i--) {
+            PNode<K, V> node = path.get(i);
+            subtree = key.compareTo(node.key) < 0 ? node.withLeft(subtree) : node.withRight(subtree);
+        }
+        path.clear();
+        return subtree;
+    }
+
+    /**
+     * Returns a copy of the subtree with its smallest node removed, copying only the left spine
+     * @param node root of subtree (not null)
+     * @return new subtree without its minimum
+     */
+    private PNode<K, V> removeMin(PNode<K, V> node) {
+        List<PNode<K, V>> spine = new ArrayList<>();
+        for (; node.left != null; node = node.left) spine.add(node);
+        PNode<K, V> subtree = node.right;
+        for (int i = spine.size() - 1; i >= 0; i--) {
+            subtree = spine.get(i).withLeft(subtree);
+        }
+        return subtree;
+    }
+
+    /**
+     * Builds a new perfectly balanced subtree (fresh nodes) out of sorted nodes, root at floor(size/2)
+     * @param nodes sorted nodes whose entries to use
+     * @param lo first index
+     * @param hi last index
+     * @return root of the new subtree
+     */
+    private PNode<K, V> build(List<PNode<K, V>> nodes, int lo, int hi) {
+        if (lo > hi) return null;
+        int mid = lo + (hi - lo + 1) / 2;
+        PNode<K, V> src = nodes.get(mid);
+        return new PNode<>(src.key, src.value, build(nodes, lo, mid - 1), build(nodes, mid + 1, hi));
+    }
+
+    /**
+     * Iterative inorder traversal into a list
+     * @param node root of subtree
+     * @param out list to add to
+     * @param <E> key type
+     * @param <A> value type
+     */
+    private static <E, A> void inorder(PNode<E, A> node, List<PNode<E, A>> out) {
+        List<PNode<E, A>> stack = new ArrayList<>();
+        while (node != null || !stack.isEmpty()) {
+            for (; node != null; node = node.left) stack.add(node);
+            node = stack.remove(stack.size() - 1);
+            out.add(node);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Finds the node holding key
+     * @param root root to search from
+     * @param key key to search for
+     * @param <E> key type
+     * @param <A> value type
+     * @return node holding key, or <code>null</code>
+     */
+    private static <E extends Comparable<E>, A> PNode<E, A> find(PNode<E, A> root, E key) {
+        if (key == null) return null;
+        PNode<E, A> curr = root;
+        while (curr != null) {
+            int cmp = key.compareTo(curr.key);
+            if (cmp == 0) return curr;
+            curr = cmp < 0 ? curr.left : curr.right;
+        }
+        return null;
+    }
+
+    /**
+     * Iterative bounded inorder walk collecting the values with keys in [from, to]
+     * @param root root to search from
+     * @param from starting key
+     * @param to ending key
+     * @param <E> key type
+     * @param <A> value type
+     * @return sorted list of values in the range
+     */
+    private static <E extends Comparable<E>, A> List<A> collectRange(PNode<E, A> root, E from, E to) {
+        List<A> res = new ArrayList<>();
+        if (from == null || to == null) return res;
+        List<PNode<E, A>> stack = new ArrayList<>();
+        PNode<E, A> curr = root;
+        while (true) {
+            while (curr != null) {
+                if (curr.key.compareTo(from) < 0) {
+                    curr = curr.right;
+                } else {
+                    stack.add(curr);
+                    curr = curr.left;
+                }
+            }
+            if (stack.isEmpty()) return res;
+            curr = stack.remove(stack.size() - 1);
+            if (curr.key.compareTo(to) > 0) return res;
+            res.add(curr.value);
+            curr = curr.right;
+        }
+    }
+
+    /**
+     * Null-safe subtree size
+     * @param node root of subtree
+     * @return size of subtree
+     */
+    private static int sizeOf(PNode<?, ?> node) {
+        return node == null ? 0 : node.size;
+    }
+}
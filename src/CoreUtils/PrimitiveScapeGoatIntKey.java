@@ -0,0 +1,143 @@
+package CoreUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scapegoat tree with primitive int keys, same behavior as {@link ScapeGoatIntKey} but without boxing or a
+ *   separate object per node.  Nodes are slots in parallel arrays: the key, the left/right/parent links (as
+ *   slot indices), and the subtree size are all ints, and the values live in an Object[].  Slots freed by
+ *   remove are reused by later adds through a free list threaded through the <code>left</code> array.
+ * <p>
+ * Balancing follows {@link ScapeGoatTree} exactly (same alpha, same insert and remove triggers, same
+ *   floor(size/2) rebuild shape), so the two produce identically shaped trees for the same operations.  The
+ *   slot arrays and the balancing are shared with {@link PrimitiveScapeGoatLongKey}; this class only holds the
+ *   keys and searches them.
+ *
+ * @param <V> data type for the values the tree will be storing
+ */
+public class PrimitiveScapeGoatIntKey<V> extends ArraySlotScapeGoatTree<V> {
+    //key of each slot, parallel to the node arrays
+    private int[] keys;
+
+    /**
+     * Constructs an empty tree
+     */
+    public PrimitiveScapeGoatIntKey() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs an empty tree with room for initialCapacity nodes before the arrays have to grow
+     * @param initialCapacity number of nodes to allocate room for
+     * @throws IllegalArgumentException if initialCapacity is negative
+     */
+    public PrimitiveScapeGoatIntKey(int initialCapacity) throws IllegalArgumentException {
+        super(initialCapacity);
+        keys = new int[left.length];
+    }
+
+    /**
+     * Adds an element to the tree.  Does nothing if key is already in the tree.
+     * @param key key to insert
+     * @param value value to associate with key
+     */
+    public void add(int key, V value) {
+        int curr = root, par = NIL, depth = 0;
+        boolean goLeft = false;
+        while (curr != NIL) {
+            par = curr;
+            if (key == keys[curr]) return; // duplicate
+            depth++;
+            goLeft = key < keys[curr];
+            curr = goLeft ? left[curr] : right[curr];
+        }
+        int node = attach(par, goLeft, value);
+        keys[node] = key;
+        rebalance(node, depth);
+    }
+
+    /**
+     * Removes an element from the tree.  Does nothing if key is not in the tree.
+     * @param key key to remove
+     */
+    public void remove(int key) {
+        int target = findSlot(key);
+        if (target != NIL) removeSlot(target);
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if key is not in the tree
+     */
+    public V get(int key) {
+        return valueAt(findSlot(key));
+    }
+
+    /**
+     * Returns whether key is in the tree (useful since null values are allowed)
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(int key) {
+        return findSlot(key) != NIL;
+    }
+
+    /**
+     * Returns the values associated with the given range of keys, inclusive ( [start, end] ), sorted by key.
+     *   O(log n + r): one descent to the first key in range, then successor steps along the parent links.
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return a sorted list of values in the range, or an empty list if no key is in that range
+     */
+    public List<V> getRange(int start, int end) {
+        List<V> res = new ArrayList<>();
+        if (start > end) return res;
+        for (int slot = ceilingSlot(start); slot != NIL && keys[slot] <= end; slot = nextSlot(slot)) {
+            res.add(valueAt(slot));
+        }
+        return res;
+    }
+
+    /**
+     * Finds the slot holding key
+     * @param key key to search for
+     * @return slot of key, or NIL
+     */
+    private int findSlot(int key) {
+        int curr = root;
+        while (curr != NIL && keys[curr] != key) {
+            curr = key < keys[curr] ? left[curr] : right[curr];
+        }
+        return curr;
+    }
+
+    /**
+     * Finds the slot with the smallest key greater than or equal to key
+     * @param key key to search for
+     * @return ceiling slot, or NIL
+     */
+    private int ceilingSlot(int key) {
+        int best = NIL, curr = root;
+        while (curr != NIL) {
+            if (key == keys[curr]) return curr;
+            if (key < keys[curr]) {
+                best = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return best;
+    }
+
+    @Override
+    void growKeys(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+    }
+
+    @Override
+    void copyKey(int from, int to) {
+        keys[to] = keys[from];
+    }
+}
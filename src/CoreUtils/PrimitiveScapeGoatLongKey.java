@@ -0,0 +1,222 @@
+package CoreUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Scapegoat tree with primitive long keys, the long counterpart of {@link PrimitiveScapeGoatIntKey}.  Nodes are
+ *   slots in parallel arrays (long keys, int links and sizes, Object values), with the same free list and the
+ *   same balancing, both shared through their common base class; this class only holds the keys and searches
+ *   them.
+ * <p>
+ * A long key can hold a composite key with no wrapper object, in one of two layouts:
+ * <ul>
+ *   <li>{@link #pack(int, int)} puts two ints into one long, 32 bits each, so each part is limited to the int
+ *       range.  {@link #high(long)}/{@link #low(long)} take it apart again.</li>
+ *   <li>{@link #pack(long, int, int)} gives the low part only lowBits bits and the high part the remaining
+ *       64 - lowBits, for a high part that does not fit in an int, like an epoch-millisecond timestamp:
+ *       <code>pack(millis, id, 20)</code> leaves 44 bits for the timestamp (about 278 years either side of
+ *       1970) and 20 bits for the id.  {@link #high(long, int)}/{@link #low(long, int)} take it apart again.</li>
+ * </ul>
+ * In both, the signed order of the packed longs is the (high, low) lexicographic order.
+ *
+ * @param <V> data type for the values the tree will be storing
+ */
+public class PrimitiveScapeGoatLongKey<V> extends ArraySlotScapeGoatTree<V> {
+    //key of each slot, parallel to the node arrays
+    private long[] keys;
+
+    /**
+     * Constructs an empty tree
+     */
+    public PrimitiveScapeGoatLongKey() { this(DEFAULT_CAPACITY); }
+
+    /**
+     * Constructs an empty tree with room for initialCapacity nodes before the arrays have to grow
+     * @param initialCapacity number of nodes to allocate room for
+     * @throws IllegalArgumentException if initialCapacity is negative
+     */
+    public PrimitiveScapeGoatLongKey(int initialCapacity) throws IllegalArgumentException {
+        super(initialCapacity);
+        keys = new long[left.length];
+    }
+
+    /**
+     * Adds an element to the tree.  Does nothing if key is already in the tree.
+     * @param key key to insert
+     * @param value value to associate with key
+     */
+    public void add(long key, V value) {
+        int curr = root, par = NIL, depth = 0;
+        boolean goLeft = false;
+        while (curr != NIL) {
+            par = curr;
+            if (key == keys[curr]) return; // duplicate
+            depth++;
+            goLeft = key < keys[curr];
+            curr = goLeft ? left[curr] : right[curr];
+        }
+        int node = attach(par, goLeft, value);
+        keys[node] = key;
+        rebalance(node, depth);
+    }
+
+    /**
+     * Removes an element from the tree.  Does nothing if key is not in the tree.
+     * @param key key to remove
+     */
+    public void remove(long key) {
+        int target = findSlot(key);
+        if (target != NIL) removeSlot(target);
+    }
+
+    /**
+     * Returns the value associated with key
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if key is not in the tree
+     */
+    public V get(long key) {
+        return valueAt(findSlot(key));
+    }
+
+    /**
+     * Returns whether key is in the tree (useful since null values are allowed)
+     * @param key key to search for
+     * @return whether key is in the tree
+     */
+    public boolean containsKey(long key) {
+        return findSlot(key) != NIL;
+    }
+
+    /**
+     * Returns the values associated with the given range of keys, inclusive ( [start, end] ), sorted by key.
+     *   O(log n + r): one descent to the first key in range, then successor steps along the parent links.
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return a sorted list of values in the range, or an empty list if no key is in that range
+     */
+    public List<V> getRange(long start, long end) {
+        List<V> res = new ArrayList<>();
+        if (start > end) return res;
+        for (int slot = ceilingSlot(start); slot != NIL && keys[slot] <= end; slot = nextSlot(slot)) {
+            res.add(valueAt(slot));
+        }
+        return res;
+    }
+
+    /**
+     * Packs two ints into a long key that sorts by high, then by low (both signed), so a composite key like
+     *   (category, id) can be a single primitive.  The low half has its sign bit flipped so that negative low
+     *   values still sort before positive ones.  Each part gets exactly 32 bits; use
+     *   {@link #pack(long, int, int)} when the high part needs more, e.g. for epoch-millisecond timestamps.
+     * @param high more significant part
+     * @param low less significant part
+     * @return packed key
+     */
+    public static long pack(int high, int low) {
+        return ((long) high << 32) | ((low ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the high part of a key made by {@link #pack(int, int)}
+     * @param key packed key
+     * @return high part
+     */
+    public static int high(long key) {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Returns the low part of a key made by {@link #pack(int, int)}
+     * @param key packed key
+     * @return low part
+     */
+    public static int low(long key) {
+        return (int) key ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * Packs a long and an int into a long key that sorts by high, then by low (both signed), with lowBits bits
+     *   for low and the other 64 - lowBits for high.  Like {@link #pack(int, int)}, the low part has the top bit
+     *   of its field flipped so negative values sort first; <code>pack(h, l, 32)</code> equals
+     *   <code>pack((int) h, l)</code>.
+     * @param high more significant part, must fit in 64 - lowBits signed bits
+     * @param low less significant part, must fit in lowBits signed bits
+     * @param lowBits number of bits for low, in [1, 32]
+     * @return packed key
+     * @throws IllegalArgumentException if lowBits is out of range, or either part does not fit in its bits
+     */
+    public static long pack(long high, int low, int lowBits) throws IllegalArgumentException {
+        if (lowBits < 1 || lowBits > 32) throw new IllegalArgumentException("lowBits must be in [1, 32], got " + lowBits);
+        if ((high << lowBits) >> lowBits != high)
+            throw new IllegalArgumentException("High part " + high + " does not fit in " + (64 - lowBits) + " bits");
+        if (((long) low << (64 - lowBits)) >> (64 - lowBits) != low)
+            throw new IllegalArgumentException("Low part " + low + " does not fit in " + lowBits + " bits");
+        long lowMask = (1L << lowBits) - 1;
+        return (high << lowBits) | ((low ^ (1L << (lowBits - 1))) & lowMask);
+    }
+
+    /**
+     * Returns the high part of a key made by {@link #pack(long, int, int)}
+     * @param key packed key
+     * @param lowBits number of bits the key was packed with for the low part
+     * @return high part
+     */
+    public static long high(long key, int lowBits) {
+        return key >> lowBits;
+    }
+
+    /**
+     * Returns the low part of a key made by {@link #pack(long, int, int)}
+     * @param key packed key
+     * @param lowBits number of bits the key was packed with for the low part
+     * @return low part
+     */
+    public static int low(long key, int lowBits) {
+        long field = key & ((1L << lowBits) - 1);
+        return (int) ((field ^ (1L << (lowBits - 1))) << (64 - lowBits) >> (64 - lowBits));
+    }
+
+    /**
+     * Finds the slot holding key
+     * @param key key to search for
+     * @return slot of key, or NIL
+     */
+    private int findSlot(long key) {
+        int curr = root;
+        while (curr != NIL && keys[curr] != key) {
+            curr = key < keys[curr] ? left[curr] : right[curr];
+        }
+        return curr;
+    }
+
+    /**
+     * Finds the slot with the smallest key greater than or equal to key
+     * @param key key to search for
+     * @return ceiling slot, or NIL
+     */
+    private int ceilingSlot(long key) {
+        int best = NIL, curr = root;
+        while (curr != NIL) {
+            if (key == keys[curr]) return curr;
+            if (key < keys[curr]) {
+                best = curr;
+                curr = left[curr];
+            } else {
+                curr = right[curr];
+            }
+        }
+        return best;
+    }
+
+    @Override
+    void growKeys(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+    }
+
+    @Override
+    void copyKey(int from, int to) {
+        keys[to] = keys[from];
+    }
+}
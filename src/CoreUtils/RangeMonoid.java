@@ -0,0 +1,32 @@
+package CoreUtils;
+
+/**
+ * Describes how to summarize values for range aggregate queries (see {@link AggregatingScapeGoatIntKey}).
+ *   Summaries are combined in key order, so <code>combine</code> must be associative, and
+ *   <code>identity()</code> must be its identity, but it does not need to be commutative.
+ *
+ * @param <V> type of the values being summarized
+ * @param <A> type of the summary
+ */
+public interface RangeMonoid<V, A> {
+    /**
+     * Summary of no values
+     * @return identity summary
+     */
+    A identity();
+
+    /**
+     * Summary of a single value
+     * @param value value to summarize (may be <code>null</code> if the tree holds null values)
+     * @return summary of just value
+     */
+    A lift(V value);
+
+    /**
+     * Combines the summary of a run of values with the summary of the run directly after it
+     * @param left summary of the earlier (smaller key) values
+     * @param right summary of the later (larger key) values
+     * @return summary of both runs
+     */
+    A combine(A left, A right);
+}
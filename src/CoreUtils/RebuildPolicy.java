@@ -0,0 +1,26 @@
+package CoreUtils;
+
+/**
+ * When a {@link ScapeGoatTree} does the full rebuild that remove triggers once nodeCount drops to
+ *   alpha * maxNodeCount.  Scapegoat rebuilds during add always happen right away, since they are what keeps the
+ *   height bounded.
+ */
+public enum RebuildPolicy {
+    /**
+     * Rebuild inside the remove that crosses the threshold (the textbook behavior)
+     */
+    EAGER,
+    /**
+     * Only note that a rebuild is due, and do it at the start of the next add, or on an explicit
+     *   {@link ScapeGoatTree#rebalance()}.  A burst of removes then costs one rebuild at the end instead of one
+     *   each time the tree shrinks by another factor of alpha.  Removes never make the tree deeper, so lookups
+     *   in the meantime are no slower than before the burst.
+     */
+    DEFERRED,
+    /**
+     * Spread the rebuild over the adds and removes that follow, a bounded number of steps each: the entries are
+     *   copied into a shadow tree, which is built balanced, caught up with the changes made in the meantime,
+     *   and then swapped in.  Lookups keep using the old tree until the swap.  No single remove pays O(n).
+     */
+    INCREMENTAL
+}
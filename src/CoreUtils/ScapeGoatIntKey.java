@@ -1,7 +1,17 @@
 package CoreUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class ScapeGoatIntKey<V> extends ScapeGoatTree<Integer, V> {
     /**
@@ -17,11 +27,65 @@ public class ScapeGoatIntKey<V> extends ScapeGoatTree<Integer, V> {
      */
     public ScapeGoatIntKey(Integer rootKey, V rootData) { super(rootKey, rootData); }
 
+    /**
+     * Constructs an empty scapegoat tree with its own alpha
+     *
+     * @param alpha weight balance parameter, see {@link #setAlpha}
+     * @throws IllegalArgumentException if alpha is not in (0.5, 1)
+     */
+    public ScapeGoatIntKey(double alpha) throws IllegalArgumentException { super(alpha); }
+
+    /**
+     * Builds a perfectly balanced tree out of already sorted keys in O(n), without any rebuilds.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @return new tree holding every key-value pair
+     * @param <V> value type
+     * @throws IllegalArgumentException if keys are not strictly increasing or the lengths differ
+     */
+    public static <V> ScapeGoatIntKey<V> fromSorted(int[] keys, List<V> values) throws IllegalArgumentException {
+        checkSameLength(keys.length, values.size());
+        ScapeGoatIntKey<V> tree = new ScapeGoatIntKey<>();
+        tree.loadSorted(Arrays.stream(keys).iterator(), values.iterator(), keys.length);
+        return tree;
+    }
+
+    /**
+     * Creates a new empty ScapeGoatIntKey
+     * @return new empty tree
+     */
+    @Override
+    protected ScapeGoatIntKey<V> newTree() {
+        return new ScapeGoatIntKey<>();
+    }
+
+    /**
+     * Splits this tree in two, see {@link ScapeGoatTree#split}
+     * @param key first key of the returned tree
+     * @return new tree holding the entries with keys &gt;= key
+     * @throws IllegalArgumentException if key is <code>null</code>
+     */
+    @Override
+    public ScapeGoatIntKey<V> split(Integer key) throws IllegalArgumentException {
+        return (ScapeGoatIntKey<V>) super.split(key);
+    }
+
+    /**
+     * Packs the tree into an immutable copy with primitive keys, see {@link FrozenScapeGoatIntKey}
+     * @return frozen copy of the tree
+     */
+    @Override
+    public FrozenScapeGoatIntKey<V> freeze() {
+        return new FrozenScapeGoatIntKey<>(this);
+    }
+
     /**
      * Returns the data associated with the given range of keys, inclusive ( [start, end] ).  The data is sorted
      *   by key.
      *
-     * It may be helpful to use a recursive function that acts similar to inorder().
+     * Callers that only stream through the values should use {@link #forEachInRange} or {@link #rangeStream},
+     *   which do not build the list.
      *
      * @param start starting key to retrieve
      * @param end ending key to retrieve
@@ -30,22 +94,349 @@ public class ScapeGoatIntKey<V> extends ScapeGoatTree<Integer, V> {
     public List<V> getRange(int start, int end){
         //
         List<V> res = new ArrayList<>();
-        if (root == null) return res;
-        collectInRange(root, start, end, res);
+        forEachInRange(start, end, (key, value) -> {
+            res.add(value);
+            return true;
+        });
         return res;
 
     }
 
-    private void collectInRange(Node<Integer, V> node, int start, int end, List<V> acc) {
-        if (node == null) return;
-        if (node.key.compareTo(start) > 0) {
-            collectInRange(node.left, start, end, acc);
+    /**
+     * Passes the entries with keys in [start, end] to consumer in ascending key order, until the range runs out
+     *   or consumer returns <code>false</code>.  One descent to the first key, then successor steps along the
+     *   parent links, so it is O(log n + r) for r entries visited, and allocates nothing.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @param consumer receives each entry, returns whether to keep going
+     * @return number of entries passed to consumer
+     * @throws ConcurrentModificationException if consumer structurally modifies the tree
+     */
+    public int forEachInRange(int start, int end, IntRangeConsumer<? super V> consumer)
+            throws ConcurrentModificationException {
+        if (start > end) return 0;
+        int expectedModCount = modCount, count = 0;
+        for (Node<Integer, V> node = ceilingNode(start); node != null && node.key <= end; node = nextNode(node)) {
+            count++;
+            boolean more = consumer.accept(node.key, node.value);
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!more) break;
+        }
+        return count;
+    }
+
+    /**
+     * {@link #forEachInRange} in descending key order, from end down to start, e.g. newest first when keys are
+     *   timestamps
+     *
+     * @param start lowest key of the range
+     * @param end highest key of the range, visited first
+     * @param consumer receives each entry, returns whether to keep going
+     * @return number of entries passed to consumer
+     * @throws ConcurrentModificationException if consumer structurally modifies the tree
+     */
+    public int forEachInRangeDescending(int start, int end, IntRangeConsumer<? super V> consumer)
+            throws ConcurrentModificationException {
+        if (start > end) return 0;
+        int expectedModCount = modCount, count = 0;
+        for (Node<Integer, V> node = floorNode(end); node != null && node.key >= start; node = prevNode(node)) {
+            count++;
+            boolean more = consumer.accept(node.key, node.value);
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (!more) break;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of keys in [start, end] in O(log n), using the cached subtree sizes instead of
+     *   visiting the keys.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @return number of keys in the range, 0 if start > end
+     */
+    public int countRange(int start, int end) {
+        Node<Integer, V> split = splitNode(start, end);
+        if (split == null) return 0;
+        int count = 1;
+        //every node at or above start on the left path brings its right subtree with it
+        for (Node<Integer, V> n = split.left; n != null; ) {
+            if (n.key >= start) {
+                count += 1 + sizeOfSubtree(n.right);
+                n = n.left;
+            } else {
+                n = n.right;
+            }
+        }
+        //and symmetrically on the right path
+        for (Node<Integer, V> n = split.right; n != null; ) {
+            if (n.key <= end) {
+                count += 1 + sizeOfSubtree(n.left);
+                n = n.right;
+            } else {
+                n = n.left;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the highest node with a key in [start, end]: the node where the search paths for start and end
+     *   split.  Every key in the range is in its subtree.
+     * @param start starting key
+     * @param end ending key
+     * @return split node, or <code>null</code> if no key is in the range
+     */
+    protected Node<Integer, V> splitNode(int start, int end) {
+        Node<Integer, V> node = root;
+        while (node != null) {
+            if (node.key < start) node = node.right;
+            else if (node.key > end) node = node.left;
+            else return node;
+        }
+        return null;
+    }
+
+    /**
+     * Lazy version of {@link #getRange}: returns an iterator over the values with keys in [start, end], sorted
+     *   by key.  Nothing is collected up front, so a consumer that stops early only pays for what it read.
+     *
+     * @apiNote the iterator fails fast with a {@link ConcurrentModificationException} if the tree is
+     *   structurally modified while iterating.
+     *
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return iterator over the values in the range, in key order
+     */
+    public Iterator<V> rangeIterator(int start, int end) {
+        return new RangeIterator(start, end, false);
+    }
+
+    /**
+     * {@link #rangeIterator} in descending key order, from end down to start
+     *
+     * @param start lowest key of the range
+     * @param end highest key of the range, returned first
+     * @return iterator over the values in the range, in descending key order
+     */
+    public Iterator<V> descendingRangeIterator(int start, int end) {
+        return new RangeIterator(start, end, true);
+    }
+
+    /**
+     * Returns a lazy, sequential stream over the values with keys in [start, end], in key order.  Short-circuiting
+     *   operations such as <code>limit(k)</code> or <code>findFirst()</code> only walk as far as they read.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @return stream of the values in the range
+     */
+    public Stream<V> rangeStream(int start, int end) {
+        return StreamSupport.stream(rangeSpliterator(start, end), false);
+    }
+
+    /**
+     * {@link #rangeStream} in descending key order, from end down to start
+     *
+     * @param start lowest key of the range
+     * @param end highest key of the range, streamed first
+     * @return stream of the values in the range, in descending key order
+     */
+    public Stream<V> descendingRangeStream(int start, int end) {
+        return StreamSupport.stream(Spliterators.spliterator(descendingRangeIterator(start, end),
+                countRange(start, end), Spliterator.ORDERED), false);
+    }
+
+    /**
+     * Returns a spliterator over the values with keys in [start, end], in key order.  It splits at the median of
+     *   what is left of its range, found by one descent over the cached subtree sizes ({@link #rank} then
+     *   {@link #select}), so each split is O(log n) and leaves two exact halves wherever the range sits in the
+     *   tree.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @return spliterator over the values in the range
+     */
+    public Spliterator<V> rangeSpliterator(int start, int end) {
+        return new RangeSpliterator(start, end);
+    }
+
+    /**
+     * Parallel version of {@link #rangeStream}, split as described in {@link #rangeSpliterator}.  Ordered
+     *   operations such as <code>collect(toList())</code> reassemble the parts in key order; call
+     *   <code>unordered()</code> first when order does not matter.  Runs in the common pool, or in whichever
+     *   ForkJoinPool the terminal operation is called from.  The tree must not be modified during the scan.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @return parallel stream of the values in the range
+     */
+    public Stream<V> parallelRangeStream(int start, int end) {
+        return StreamSupport.stream(rangeSpliterator(start, end), true);
+    }
+
+    /**
+     * Parallel version of {@link #getRange}: each part of the range is collected on its own and the parts are
+     *   concatenated in key order
+     *
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return a sorted list of values in the range, or an empty list if no key is in that range
+     */
+    public List<V> parallelGetRange(int start, int end) {
+        return parallelRangeStream(start, end).collect(ArrayList::new, ArrayList::add, ArrayList::addAll);
+    }
+
+    /**
+     * Summarizes the values with keys in [start, end] in parallel: each part of the range is reduced on its own
+     *   and the summaries are combined in key order, so monoid does not need to be commutative.  Visits every
+     *   value, O(r / p) for p threads, and needs no cached summaries (compare
+     *   {@link AggregatingScapeGoatIntKey}).
+     *
+     * @param start starting key
+     * @param end ending key
+     * @param monoid how to summarize values
+     * @param <A> summary type
+     * @return summary of the values in the range, monoid.identity() if there are none
+     */
+    public <A> A parallelReduce(int start, int end, RangeMonoid<? super V, A> monoid) {
+        return parallelRangeStream(start, end).map(monoid::lift).reduce(monoid.identity(), monoid::combine);
+    }
+
+    /**
+     * Counts the values with keys in [start, end] that match filter, in parallel.  For plain counts use
+     *   {@link #countRange}, which needs only O(log n) from the cached subtree sizes.
+     *
+     * @param start starting key
+     * @param end ending key
+     * @param filter which values to count
+     * @return number of matching values in the range
+     */
+    public long parallelCountRange(int start, int end, Predicate<? super V> filter) {
+        return parallelRangeStream(start, end).unordered().filter(filter).count();
+    }
+
+    /**
+     * Iterator over the values in [start, end] in either direction, failing fast on structural modification
+     */
+    private final class RangeIterator implements Iterator<V> {
+        private final int start, end;
+        private final boolean descending;
+        private final int expectedModCount = modCount;
+        private Node<Integer, V> next;
+
+        RangeIterator(int start, int end, boolean descending) {
+            this.start = start;
+            this.end = end;
+            this.descending = descending;
+            if (start <= end) next = inRange(descending ? floorNode(end) : ceilingNode(start));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public V next() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (next == null) throw new NoSuchElementException();
+            Node<Integer, V> curr = next;
+            next = inRange(descending ? prevNode(curr) : nextNode(curr));
+            return curr.value;
+        }
+
+        private Node<Integer, V> inRange(Node<Integer, V> node) {
+            return node != null && node.key >= start && node.key <= end ? node : null;
+        }
+    }
+
+    /**
+     * Spliterator over the values in [lo, hi] that splits what is left of its range in half by rank
+     */
+    private final class RangeSpliterator implements Spliterator<V> {
+        private final int expectedModCount = modCount;
+        //range of keys, and the node with the smallest key not yet visited (found lazily)
+        private final int lo, hi;
+        private Node<Integer, V> next;
+        private boolean started = false;
+        private long size;
+
+        RangeSpliterator(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+            size = countRange(lo, hi);
+        }
+
+        private RangeSpliterator(int lo, int hi, long size) {
+            this.lo = lo;
+            this.hi = hi;
+            this.size = size;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            Node<Integer, V> node = nextInRange();
+            if (node == null) return false;
+            next = nextNode(node);
+            size--;
+            action.accept(node.value);
+            return true;
         }
-        if (node.key >= start && node.key <= end) {
-            acc.add(node.value);
+
+        @Override
+        public void forEachRemaining(Consumer<? super V> action) {
+            Node<Integer, V> node = nextInRange();
+            while (node != null) {
+                next = nextNode(node);
+                size--;
+                action.accept(node.value);
+                node = next != null && next.key <= hi ? next : null;
+            }
+            next = null;
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
         }
-        if (node.key.compareTo(end) < 0) {
-            collectInRange(node.right, start, end, acc);
+
+        /**
+         * Hands off the smaller half of the remaining keys and keeps the rest, starting at the median
+         */
+        @Override
+        public Spliterator<V> trySplit() {
+            if (size < 2) return null;
+            //the smallest remaining key, so a range that was partly walked splits what is left
+            Node<Integer, V> first = nextInRange();
+            long prefix = size / 2;
+            Node<Integer, V> split = selectNode(rank(first.key) + (int) prefix);
+            RangeSpliterator res = new RangeSpliterator(first.key, split.key - 1, prefix);
+            res.next = first;
+            res.started = true;
+            next = split;
+            size -= prefix;
+            return res;
+        }
+
+        @Override
+        public long estimateSize() {
+            return size;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+
+        /**
+         * Returns the node with the smallest unvisited key, or null if the range is used up
+         */
+        private Node<Integer, V> nextInRange() {
+            if (!started) {
+                started = true;
+                next = lo <= hi ? ceilingNode(lo) : null;
+            }
+            return next != null && next.key <= hi ? next : null;
         }
     }
-}
\ No newline at end of file
+}
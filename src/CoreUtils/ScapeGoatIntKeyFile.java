@@ -0,0 +1,397 @@
+package CoreUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * On-disk snapshot of a {@link ScapeGoatIntKey}, memory-mapped for reading.
+ * <p>
+ * File layout (big-endian):
+ * <pre>
+ *   int  magic, version, count
+ *   int  keys[count]          sorted, strictly increasing
+ *   long offsets[count + 1]   start of each value in the value section, ~start for a null value;
+ *                             offsets[count] is the length of the value section
+ *   byte values[]             values encoded with a {@link BinaryCodec}, back to back
+ * </pre>
+ * The sorted key array is the balanced layout implied by {@link ScapeGoatTree#rebuild}: the rebuilt root of any
+ *   range is the element at floor(size/2), so a binary search that splits the same way ({@link #get}) visits
+ *   exactly the keys a lookup in the rebuilt tree would.  That lets a mapped file answer {@link #get} and
+ *   {@link #getRange} straight away, and {@link #toTree()} materializes the heap tree in O(n) with one
+ *   sequential pass over the file and no rebuilds.
+ * <p>
+ * Each section is mapped on its own, in chunks of at most 1GB, so files are not limited by the 2GB size of a
+ *   single MappedByteBuffer.  A mapped view only does absolute reads, so it is safe to share between threads.
+ *
+ * @param <V> data type for the values stored in the file
+ */
+public class ScapeGoatIntKeyFile<V> {
+    public static final int MAGIC = 0x53474B31;// "SGK1"
+    public static final int VERSION = 1;
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    //size of one mapped chunk, a multiple of 8 so keys and offsets never straddle two chunks
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    /**
+     * Part of the file mapped as one or more read-only chunks
+     */
+    private static final class Region {
+        private final ByteBuffer[] chunks;
+
+        /**
+         * Maps length bytes of the file starting at start
+         * @param channel open file
+         * @param start first byte of the region
+         * @param length number of bytes in the region
+         * @throws IOException if the mapping fails
+         */
+        Region(FileChannel channel, long start, long length) throws IOException {
+            chunks = new ByteBuffer[(int) ((length + CHUNK_BYTES - 1) >>> CHUNK_SHIFT)];
+            for (int i = 0; i < chunks.length; i++) {
+                long chunkStart = (long) i << CHUNK_SHIFT;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start + chunkStart,
+                        Math.min(CHUNK_BYTES, length - chunkStart));
+            }
+        }
+
+        int getInt(long pos) {
+            return chunks[(int) (pos >>> CHUNK_SHIFT)].getInt((int) (pos & (CHUNK_BYTES - 1)));
+        }
+
+        long getLong(long pos) {
+            return chunks[(int) (pos >>> CHUNK_SHIFT)].getLong((int) (pos & (CHUNK_BYTES - 1)));
+        }
+
+        /**
+         * Returns a buffer whose remaining bytes are [pos, pos + length) of the region.  Shares the mapping
+         *   unless the bytes straddle two chunks, in which case they are copied.  Zero bytes need no chunk at all
+         *   (the region may have none, or pos may be the end of the last one).
+         * @param pos first byte
+         * @param length number of bytes
+         * @return buffer over the bytes
+         */
+        ByteBuffer slice(long pos, int length) {
+            if (length == 0) return ByteBuffer.allocate(0);
+            int chunk = (int) (pos >>> CHUNK_SHIFT), off = (int) (pos & (CHUNK_BYTES - 1));
+            if (off + length <= chunks[chunk].limit()) {
+                ByteBuffer res = chunks[chunk].duplicate();
+                res.limit(off + length).position(off);
+                return res;
+            }
+            byte[] copy = new byte[length];
+            for (int done = 0; done < length; chunk++, off = 0) {
+                ByteBuffer src = chunks[chunk].duplicate();
+                src.position(off);
+                int n = Math.min(src.remaining(), length - done);
+                src.get(copy, done, n);
+                done += n;
+            }
+            return ByteBuffer.wrap(copy);
+        }
+    }
+
+    private final BinaryCodec<V> codec;
+    private final int count;
+    private final Region keys, offsets, values;
+
+    private ScapeGoatIntKeyFile(BinaryCodec<V> codec, int count, Region keys, Region offsets, Region values) {
+        this.codec = codec;
+        this.count = count;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.values = values;
+    }
+
+    /**
+     * Writes tree to path, replacing anything already there.  Values are encoded one at a time and streamed to
+     *   the file, so memory use is O(n) ints and longs for the keys and offsets, not the encoded values.
+     * <p>
+     * The snapshot is durable when this returns: it is written to <code>path + ".tmp"</code>, forced to disk, and
+     *   then atomically renamed over path (and the directory forced, where the platform allows it).  A crash at any
+     *   point leaves either the old file or the complete new one at path, never a partial one; a leftover
+     *   ".tmp" file is simply overwritten by the next write.
+     * @param tree tree to write
+     * @param path file to write to
+     * @param codec codec for the values
+     * @param <V> value type
+     * @throws IOException if writing fails, or the file system cannot rename atomically
+     */
+    public static <V> void write(ScapeGoatIntKey<V> tree, Path path, BinaryCodec<V> codec) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = dir.resolve(path.getFileName() + ".tmp");
+        try {
+            writeTo(tree, temp, codec);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        forceDirectory(dir);
+    }
+
+    /**
+     * Writes the snapshot of tree to file and forces it to disk
+     * @param tree tree to write
+     * @param file file to write to
+     * @param codec codec for the values
+     * @param <V> value type
+     * @throws IOException if writing fails
+     */
+    private static <V> void writeTo(ScapeGoatIntKey<V> tree, Path file, BinaryCodec<V> codec) throws IOException {
+        int n = tree.size();
+        int[] sortedKeys = new int[n];
+        long[] valueOffsets = new long[n + 1];
+        long valuesStart = HEADER_BYTES + (long) Integer.BYTES * n + (long) Long.BYTES * (n + 1);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+            //values first, after the space reserved for everything else
+            channel.position(valuesStart);
+            long pos = 0;
+            int i = 0;
+            for (Map.Entry<Integer, V> entry : tree) {
+                sortedKeys[i] = entry.getKey();
+                V value = entry.getValue();
+                if (value == null) {
+                    valueOffsets[i++] = ~pos;
+                    continue;
+                }
+                valueOffsets[i++] = pos;
+                byte[] bytes = codec.encode(value);
+                if (bytes.length > buf.remaining()) flush(channel, buf);
+                if (bytes.length > buf.capacity()) {
+                    writeFully(channel, ByteBuffer.wrap(bytes));
+                } else {
+                    buf.put(bytes);
+                }
+                pos += bytes.length;
+            }
+            valueOffsets[n] = pos;
+            flush(channel, buf);
+
+            channel.position(0);
+            buf.putInt(MAGIC).putInt(VERSION).putInt(n);
+            for (int key : sortedKeys) {
+                if (buf.remaining() < Integer.BYTES) flush(channel, buf);
+                buf.putInt(key);
+            }
+            for (long offset : valueOffsets) {
+                if (buf.remaining() < Long.BYTES) flush(channel, buf);
+                buf.putLong(offset);
+            }
+            flush(channel, buf);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces dir to disk so a rename inside it survives a crash.  Some platforms (Windows) cannot open a
+     *   directory as a channel; there the rename is as durable as the file system makes it on its own.
+     * @param dir directory to force
+     * @throws IOException if the directory was opened but forcing it failed
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #write}.  Only reads the header, so this is O(1) regardless of file size.
+     * @param path file to open
+     * @param codec codec for the values
+     * @param <V> value type
+     * @return mapped view of the file
+     * @throws IOException if the file cannot be read, or is not a valid (complete) snapshot file
+     */
+    public static <V> ScapeGoatIntKeyFile<V> open(Path path, BinaryCodec<V> codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) throw new IOException("Truncated header: " + path);
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a ScapeGoatIntKey file: " + path);
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException("Unsupported version " + version + ": " + path);
+            int count = header.getInt();
+            if (count < 0) throw new IOException("Negative entry count " + count + ": " + path);
+
+            long offsetsStart = HEADER_BYTES + (long) Integer.BYTES * count;
+            long valuesStart = offsetsStart + (long) Long.BYTES * (count + 1);
+            if (channel.size() < valuesStart) throw new IOException("Truncated file: " + path);
+            Region offsets = new Region(channel, offsetsStart, (long) Long.BYTES * (count + 1));
+            long valuesLength = offsets.getLong((long) Long.BYTES * count);
+            if (valuesLength < 0 || channel.size() < valuesStart + valuesLength)
+                throw new IOException("Truncated file: " + path);
+            //the mappings stay valid after the channel is closed
+            return new ScapeGoatIntKeyFile<>(codec, count, new Region(channel, HEADER_BYTES, (long) Integer.BYTES * count),
+                    offsets, new Region(channel, valuesStart, valuesLength));
+        }
+    }
+
+    /**
+     * Reads a file written by {@link #write} back into a heap tree, in O(n)
+     * @param path file to read
+     * @param codec codec for the values
+     * @param <V> value type
+     * @return tree holding every entry of the file
+     * @throws IOException if the file cannot be read, or is not a valid snapshot file
+     */
+    public static <V> ScapeGoatIntKey<V> load(Path path, BinaryCodec<V> codec) throws IOException {
+        return open(path, codec).toTree();
+    }
+
+    /**
+     * Builds the heap tree out of the mapped file in O(n): one sequential pass, no comparisons beyond checking
+     *   that the keys are sorted, and no rebuilds.
+     * @return new tree holding every entry of the file
+     * @throws IllegalArgumentException if the keys in the file are not strictly increasing (corrupt file)
+     */
+    public ScapeGoatIntKey<V> toTree() throws IllegalArgumentException {
+        ScapeGoatIntKey<V> tree = new ScapeGoatIntKey<>();
+        tree.loadSorted(new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() { return next < count; }
+
+            @Override
+            public Integer next() {
+                if (next >= count) throw new NoSuchElementException();
+                return keyAt(next++);
+            }
+        }, new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() { return next < count; }
+
+            @Override
+            public V next() {
+                if (next >= count) throw new NoSuchElementException();
+                return valueAt(next++);
+            }
+        }, count);
+        return tree;
+    }
+
+    /**
+     * Returns the value associated with key, read straight from the file.  The search splits each range at
+     *   floor(size/2), the same node a rebuilt tree would have at the root of that range.
+     * @param key key to search for
+     * @return value associated with key, or <code>null</code> if key is not in the file
+     */
+    public V get(int key) {
+        int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * Returns whether key is in the file (useful since null values are allowed)
+     * @param key key to search for
+     * @return whether key is in the file
+     */
+    public boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Returns the values associated with the given range of keys, inclusive ( [start, end] ), sorted by key, in
+     *   O(log n + r) read straight from the file
+     * @param start starting key to retrieve
+     * @param end ending key to retrieve
+     * @return a sorted list of values in the range, or an empty list if no key is in that range
+     */
+    public List<V> getRange(int start, int end) {
+        List<V> res = new ArrayList<>();
+        if (start > end) return res;
+        //first index with key >= start
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keyAt(mid) < start) lo = mid + 1;
+            else hi = mid;
+        }
+        for (int i = lo; i < count && keyAt(i) <= end; i++) {
+            res.add(valueAt(i));
+        }
+        return res;
+    }
+
+    /**
+     * Returns the number of entries in the file
+     * @return number of entries
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Binary search for key, splitting like the rebuilt tree does
+     * @param key key to search for
+     * @return index of key, or -1
+     */
+    private int indexOf(int key) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = lo + (hi - lo + 1) / 2;
+            int midKey = keyAt(mid);
+            if (key == midKey) return mid;
+            if (key < midKey) hi = mid - 1;
+            else lo = mid + 1;
+        }
+        return -1;
+    }
+
+    private int keyAt(int index) {
+        return keys.getInt((long) Integer.BYTES * index);
+    }
+
+    /**
+     * Decodes the value at index
+     * @param index index of the entry
+     * @return decoded value, <code>null</code> if a null value was written
+     */
+    private V valueAt(int index) {
+        long start = offsets.getLong((long) Long.BYTES * index);
+        if (start < 0) return null;
+        long end = offsets.getLong((long) Long.BYTES * (index + 1));
+        if (end < 0) end = ~end;
+        return codec.decode(values.slice(start, (int) (end - start)));
+    }
+
+    /**
+     * Writes out and clears buf
+     * @param channel channel to write to
+     * @param buf buffer holding bytes to write
+     * @throws IOException if writing fails
+     */
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        writeFully(channel, buf);
+        buf.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+}
@@ -0,0 +1,113 @@
+package CoreUtils;
+
+/**
+ * Snapshot of the counters a {@link ScapeGoatTree} keeps once {@link ScapeGoatTree#setMetricsEnabled metrics are
+ *   enabled}, taken by {@link ScapeGoatTree#getMetrics()}.  Counts cover everything since metrics were (last)
+ *   enabled; the shape figures describe the tree at the time of the snapshot.
+ */
+public final class ScapeGoatMetrics {
+    private final long rebuilds, rebuiltNodes, removeRebuilds, scapegoatSteps;
+    private final long inserts, insertDepthSum, lookups, lookupComparisons;
+    private final int maxInsertDepth, size, height, heightBound;
+
+    ScapeGoatMetrics(long rebuilds, long rebuiltNodes, long removeRebuilds, long scapegoatSteps, long inserts,
+                     long insertDepthSum, int maxInsertDepth, long lookups, long lookupComparisons, int size,
+                     int height, int heightBound) {
+        this.rebuilds = rebuilds;
+        this.rebuiltNodes = rebuiltNodes;
+        this.removeRebuilds = removeRebuilds;
+        this.scapegoatSteps = scapegoatSteps;
+        this.inserts = inserts;
+        this.insertDepthSum = insertDepthSum;
+        this.maxInsertDepth = maxInsertDepth;
+        this.lookups = lookups;
+        this.lookupComparisons = lookupComparisons;
+        this.size = size;
+        this.height = height;
+        this.heightBound = heightBound;
+    }
+
+    /**
+     * Returns the number of subtree and whole tree rebuilds, for any reason
+     * @return number of rebuilds
+     */
+    public long rebuilds() { return rebuilds; }
+
+    /**
+     * Returns the total number of nodes relinked by those rebuilds
+     * @return number of rebuilt nodes
+     */
+    public long rebuiltNodes() { return rebuiltNodes; }
+
+    /**
+     * Returns how many times a remove dropped the tree to alpha * maxNodeCount and so made a full rebuild due,
+     *   whichever {@link RebuildPolicy} then carried it out
+     * @return number of remove-triggered full rebuilds
+     */
+    public long removeRebuilds() { return removeRebuilds; }
+
+    /**
+     * Returns the number of ancestors checked while searching for scapegoats
+     * @return scapegoat search steps
+     */
+    public long scapegoatSteps() { return scapegoatSteps; }
+
+    /**
+     * Returns the number of nodes inserted by descending the tree (bulk merges are counted as rebuilds only)
+     * @return number of inserts
+     */
+    public long inserts() { return inserts; }
+
+    /**
+     * Returns the deepest any inserted node landed, in edges from the root
+     * @return max insert depth
+     */
+    public int maxInsertDepth() { return maxInsertDepth; }
+
+    /**
+     * Returns the mean depth inserted nodes landed at, in edges from the root
+     * @return average insert depth, 0 if nothing was inserted
+     */
+    public double averageInsertDepth() { return inserts == 0 ? 0 : (double) insertDepthSum / inserts; }
+
+    /**
+     * Returns the number of single-key searches (get, containsKey, remove, ...)
+     * @return number of lookups
+     */
+    public long lookups() { return lookups; }
+
+    /**
+     * Returns the number of key comparisons made by those searches
+     * @return lookup comparisons
+     */
+    public long lookupComparisons() { return lookupComparisons; }
+
+    /**
+     * Returns the number of entries at the time of the snapshot
+     * @return tree size
+     */
+    public int size() { return size; }
+
+    /**
+     * Returns the height at the time of the snapshot, in nodes on the longest root to leaf path
+     * @return height, 0 if empty
+     */
+    public int height() { return height; }
+
+    /**
+     * Returns the height the alpha balance guarantees, floor(log_(1/alpha)(maxNodeCount)) + 1.  A height close
+     *   to this means inserts are about to start triggering rebuilds near the root.
+     * @return height bound
+     */
+    public int heightBound() { return heightBound; }
+
+    @Override
+    public String toString() {
+        return "ScapeGoatMetrics{rebuilds=" + rebuilds + ", rebuiltNodes=" + rebuiltNodes +
+                ", removeRebuilds=" + removeRebuilds + ", scapegoatSteps=" + scapegoatSteps +
+                ", inserts=" + inserts + ", maxInsertDepth=" + maxInsertDepth +
+                ", averageInsertDepth=" + averageInsertDepth() + ", lookups=" + lookups +
+                ", lookupComparisons=" + lookupComparisons + ", size=" + size + ", height=" + height +
+                ", heightBound=" + heightBound + "}";
+    }
+}
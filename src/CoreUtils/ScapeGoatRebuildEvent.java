@@ -0,0 +1,31 @@
+package CoreUtils;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one rebuild in a {@link ScapeGoatTree} that has metrics enabled.  Its duration is the time the
+ *   rebuild took, so in a recording it lines up with the operation whose latency it caused.
+ */
+@Name("CoreUtils.ScapeGoatRebuild")
+@Label("Scapegoat Tree Rebuild")
+@Category({"CoreUtils", "ScapeGoatTree"})
+@Description("Subtree or whole tree rebuild in a ScapeGoatTree")
+public final class ScapeGoatRebuildEvent extends Event {
+    @Label("Rebuilt Nodes")
+    int rebuiltNodes;
+
+    @Label("Tree Size")
+    int treeSize;
+
+    @Label("Whole Tree")
+    @Description("Whether the root was rebuilt, as opposed to a subtree")
+    boolean wholeTree;
+
+    @Label("Remove Triggered")
+    @Description("Whether the rebuild is the full rebuild a remove made due")
+    boolean removeTriggered;
+}
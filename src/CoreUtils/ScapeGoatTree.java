@@ -1,10 +1,27 @@
 package CoreUtils;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInterface<K, V> {
+public class ScapeGoatTree<K, V> extends ScapeGoatTreeInterface<K, V>
+        implements Iterable<Map.Entry<K, V>> {
     //root
     protected Node<K, V> root;
+    //key order, or null for the keys' natural order
+    private final Comparator<? super K> comparator;
     //total number of nodes
     protected int nodeCount = 0;
     /**
@@ -17,14 +34,58 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
      *   set to max(maxNodeCount, nodeCount).
      */
     protected int maxNodeCount = 0;
+    //number of structural modifications, lets iterators and cursors fail fast
+    protected int modCount = 0;
+    //remaining nodes of the vine being consumed by buildFromVine (only non-null during a rebuild)
+    private Node<K, V> vine;
 
-    //alpha parameter defined in abstract parent class ("ALPHA_THRESHOLD")
+    //depth powers for ALPHA_THRESHOLD, shared by every tree using the default alpha
+    static final double[] DEFAULT_DEPTH_POWERS = depthPowers(ALPHA_THRESHOLD);
+    //alpha parameter, defaults to the one in the abstract parent class ("ALPHA_THRESHOLD")
+    private double alpha = ALPHA_THRESHOLD;
+    //depthPowers[d] = (1/alpha)^d, up to the first power past Integer.MAX_VALUE
+    private double[] depthPowers = DEFAULT_DEPTH_POWERS;
+    //floor(log_(1/alpha)(nodeCount)), moved one step at a time by syncDepthBound instead of calling log per add
+    private int depthBound = 0;
+    //bound on the height of the tree, see heightLimit()
+    private int heightLimit = DEFAULT_DEPTH_POWERS.length;
+    //when remove's full rebuild happens, and whether one is waiting (DEFERRED only)
+    private RebuildPolicy rebuildPolicy = RebuildPolicy.EAGER;
+    private boolean rebuildPending = false;
+    //full rebuild in progress (INCREMENTAL only)
+    private RebuildJob job;
+    //steps of an incremental rebuild done per add/remove
+    private static final int INCREMENTAL_STEPS = 64;
+    //counters, null unless metrics are enabled, so the hot paths only pay for a null check
+    private MetricCounters metrics;
 
     /**
      * Constructs an empty scapegoat tree
      */
     public ScapeGoatTree(){
         root = null;
+        comparator = null;
+    }
+
+    /**
+     * Constructs an empty scapegoat tree that orders its keys with comparator instead of their natural order.
+     *   Keys then do not need to be Comparable at all, so e.g. composite keys can be compared field by field
+     *   without wrapping them.
+     * @param comparator key order, or <code>null</code> for natural order
+     */
+    public ScapeGoatTree(Comparator<? super K> comparator) {
+        root = null;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Constructs an empty scapegoat tree with its own alpha
+     * @param alpha weight balance parameter, see {@link #setAlpha}
+     * @throws IllegalArgumentException if alpha is not in (0.5, 1)
+     */
+    public ScapeGoatTree(double alpha) throws IllegalArgumentException {
+        this();
+        setAlpha(alpha);
     }
 
     /**
@@ -33,6 +94,7 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
      * @param rootData root data to store
      */
     public ScapeGoatTree(K rootKey, V rootData) {
+        comparator = null;
         root = new Node<K, V>(rootKey, rootData, null, null, null);
         //nodeCount++;
         nodeCount = 1;
@@ -40,6 +102,396 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
     }
 
 
+    /**
+     * Builds a perfectly balanced scapegoat tree out of already sorted keys in O(n), without any rebuilds.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @return new tree holding every key-value pair
+     * @param <K> key type
+     * @param <V> value type
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or the
+     *   lengths differ
+     */
+    public static <K extends Comparable<K>, V> ScapeGoatTree<K, V> fromSorted(List<K> keys, List<V> values)
+            throws IllegalArgumentException {
+        checkSameLength(keys.size(), values.size());
+        ScapeGoatTree<K, V> tree = new ScapeGoatTree<>();
+        tree.loadSorted(keys.iterator(), values.iterator(), keys.size());
+        return tree;
+    }
+
+    /**
+     * Builds a perfectly balanced scapegoat tree out of already sorted keys in O(n), without any rebuilds.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @return new tree holding every key-value pair
+     * @param <K> key type
+     * @param <V> value type
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or the
+     *   lengths differ
+     */
+    public static <K extends Comparable<K>, V> ScapeGoatTree<K, V> fromSorted(K[] keys, V[] values)
+            throws IllegalArgumentException {
+        return fromSorted(Arrays.asList(keys), Arrays.asList(values));
+    }
+
+    /**
+     * Builds a perfectly balanced scapegoat tree out of the first count entries of two sorted iterators
+     *   in O(count), without any rebuilds.  Useful for streaming a snapshot in without materializing it.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @param count number of entries to take from the iterators
+     * @return new tree holding every key-value pair
+     * @param <K> key type
+     * @param <V> value type
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or an
+     *   iterator runs out before count entries
+     */
+    public static <K extends Comparable<K>, V> ScapeGoatTree<K, V> fromSorted(Iterator<K> keys, Iterator<V> values,
+                                                                             int count)
+            throws IllegalArgumentException {
+        ScapeGoatTree<K, V> tree = new ScapeGoatTree<>();
+        tree.loadSorted(keys, values, count);
+        return tree;
+    }
+
+    /**
+     * Throws if the number of keys and values given to a bulk operation differ
+     * @param numKeys number of keys
+     * @param numValues number of values
+     * @throws IllegalArgumentException if they differ
+     */
+    protected static void checkSameLength(int numKeys, int numValues) throws IllegalArgumentException {
+        if (numKeys != numValues)
+            throw new IllegalArgumentException("Got " + numKeys + " keys but " + numValues + " values");
+    }
+
+    /**
+     * Throws if key may not come directly after prev in a sorted batch
+     * @param prev previous key in the batch, or <code>null</code> if key is the first
+     * @param key key to check
+     * @param index index of key in the batch, for the error message
+     * @throws IllegalArgumentException if key is null or not strictly greater than prev
+     */
+    protected void checkSortedKey(K prev, K key, int index) throws IllegalArgumentException {
+        if (key == null)
+            throw new IllegalArgumentException("Null key at index " + index + " of sorted batch");
+        if (prev != null && compare(prev, key) >= 0)
+            throw new IllegalArgumentException("Keys not strictly increasing at index " + index +
+                    " (" + prev + " then " + key + ")");
+    }
+
+    /**
+     * Replaces the contents of this tree with a perfectly balanced tree of count sorted entries.  The new
+     *   nodes are strung into a vine as they are read and then linked by {@link #buildFromVine}, so this is
+     *   O(count) with no rebuilds.  The tree is left untouched if the input is invalid.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values in the same order
+     * @param count number of entries to take
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or an
+     *   iterator runs out before count entries
+     */
+    protected void loadSorted(Iterator<? extends K> keys, Iterator<? extends V> values, int count)
+            throws IllegalArgumentException {
+        if (count < 0)
+            throw new IllegalArgumentException("Negative entry count " + count);
+        Node<K, V> head = null, tail = null;
+        for (int i = 0; i < count; i++) {
+            if (!keys.hasNext() || !values.hasNext())
+                throw new IllegalArgumentException("Ran out of entries after " + i + ", expected " + count);
+            K key = keys.next();
+            checkSortedKey(tail == null ? null : tail.key, key, i);
+            Node<K, V> node = createNode(key, values.next(), null);
+            if (tail == null) head = node;
+            else tail.right = node;
+            tail = node;
+        }
+        replaceWithVine(head, count);
+    }
+
+    /**
+     * Returns the comparator ordering this tree's keys
+     * @return comparator, or <code>null</code> if the keys' natural order is used
+     */
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    /**
+     * Compares two keys with this tree's comparator, or their natural order if it has none
+     * @param a first key
+     * @param b second key
+     * @return negative, zero, or positive as a is less than, equal to, or greater than b
+     * @throws ClassCastException if there is no comparator and the keys are not comparable
+     */
+    @Override
+    protected int compare(K a, K b) {
+        return comparator == null ? super.compare(a, b) : comparator.compare(a, b);
+    }
+
+    /**
+     * Returns this tree's alpha
+     * @return alpha
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Sets the weight balance parameter.  Lower alpha keeps the tree shallower (faster lookups) at the cost of
+     *   more frequent rebuilds; higher alpha rebuilds less often (cheaper writes) but lets the tree get deeper.
+     *   The tree is not rebuilt right away, later adds and removes enforce the new bound.
+     * @param alpha weight balance parameter, strictly between 0.5 and 1
+     * @throws IllegalArgumentException if alpha is not in (0.5, 1)
+     */
+    public void setAlpha(double alpha) throws IllegalArgumentException {
+        if (!(alpha > 0.5 && alpha < 1))
+            throw new IllegalArgumentException("Alpha must be in (0.5, 1), got " + alpha);
+        this.alpha = alpha;
+        depthPowers = depthPowers(alpha);
+        depthBound = 0;
+        heightLimit = Math.max(heightLimit, depthPowers.length);
+    }
+
+    /**
+     * Returns when remove's full rebuild happens
+     * @return rebuild policy
+     */
+    public RebuildPolicy getRebuildPolicy() {
+        return rebuildPolicy;
+    }
+
+    /**
+     * Sets when remove's full rebuild happens.  Switching away from {@link RebuildPolicy#DEFERRED} does any
+     *   rebuild that is still waiting, and switching away from {@link RebuildPolicy#INCREMENTAL} hands the
+     *   rebuild in progress over to the new policy.
+     * @param policy rebuild policy
+     * @throws IllegalArgumentException if policy is <code>null</code>
+     */
+    public void setRebuildPolicy(RebuildPolicy policy) throws IllegalArgumentException {
+        if (policy == null) throw new IllegalArgumentException("Null rebuild policy");
+        rebuildPolicy = policy;
+        if (policy != RebuildPolicy.INCREMENTAL && job != null) {
+            //drop the half-done rebuild, it is now due under the new policy
+            job = null;
+            rebuildPending = true;
+        }
+        if (policy != RebuildPolicy.DEFERRED && rebuildPending) rebalance();
+    }
+
+    /**
+     * Rebuilds the whole tree into a perfectly balanced one, O(n).  Also does any full rebuild that
+     *   {@link RebuildPolicy#DEFERRED} has been holding back, or that {@link RebuildPolicy#INCREMENTAL} is in the
+     *   middle of.
+     */
+    public void rebalance() {
+        boolean removeTriggered = rebuildPending || job != null;
+        rebuildPending = false;
+        job = null;
+        if (root == null) return;
+        if (metrics != null) metrics.removeTriggered = removeTriggered;
+        root = rebuild(root);
+        maxNodeCount = nodeCount;
+        modCount++;
+    }
+
+    /**
+     * Turns metrics on or off.  While on, the tree counts rebuilds, scapegoat searches, insert depths and lookup
+     *   comparisons (see {@link ScapeGoatMetrics}) and emits a {@link ScapeGoatRebuildEvent} for every rebuild;
+     *   while off, none of that costs more than a null check.  Turning metrics on again starts from zero.
+     * <p>
+     * Lookups only ever read the tree, so they may run concurrently (as under the read lock of a
+     *   {@link ConcurrentScapeGoatTree}); their counters are {@link LongAdder}s so no counts are lost.  Every other
+     *   counter is only updated by operations that modify the tree, which already need exclusive access.
+     * @param enabled whether to collect metrics
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        metrics = enabled ? new MetricCounters() : null;
+    }
+
+    /**
+     * Returns a snapshot of the metrics collected since they were enabled, along with the current height and the
+     *   height alpha guarantees.  Measuring the height walks the whole tree, O(n), but only on the first call after
+     *   the tree has changed; until the next change the height is remembered.
+     * @return metrics snapshot, or <code>null</code> if metrics are not enabled
+     */
+    public ScapeGoatMetrics getMetrics() {
+        MetricCounters m = metrics;
+        if (m == null) return null;
+        int bound = 0;
+        while (bound + 1 < depthPowers.length && depthPowers[bound + 1] <= maxNodeCount) bound++;
+        return new ScapeGoatMetrics(m.rebuilds, m.rebuiltNodes, m.removeRebuilds, m.scapegoatSteps, m.inserts,
+                m.insertDepthSum, m.maxInsertDepth, m.lookups.sum(), m.lookupComparisons.sum(), nodeCount, m.height(),
+                root == null ? 0 : bound + 1);
+    }
+
+    /**
+     * Height of the tree, in nodes.  Iterative, one level at a time, so it never depends on the thread stack.
+     * @return height, 0 if empty
+     */
+    private int height() {
+        int height = 0;
+        List<Node<K, V>> level = new ArrayList<>(), next = new ArrayList<>();
+        if (root != null) level.add(root);
+        while (!level.isEmpty()) {
+            height++;
+            for (Node<K, V> curr : level) {
+                if (curr.left != null) next.add(curr.left);
+                if (curr.right != null) next.add(curr.right);
+            }
+            List<Node<K, V>> done = level;
+            level = next;
+            next = done;
+            next.clear();
+        }
+        return height;
+    }
+
+    /**
+     * Counters behind {@link ScapeGoatMetrics}
+     */
+    private final class MetricCounters {
+        long rebuilds, rebuiltNodes, removeRebuilds, scapegoatSteps;
+        long inserts, insertDepthSum;
+        int maxInsertDepth;
+        //updated by lookups, which may run concurrently with each other
+        final LongAdder lookups = new LongAdder(), lookupComparisons = new LongAdder();
+        //whether the next rebuild is the full rebuild a remove made due
+        boolean removeTriggered;
+        //last measured height in the low half and the modCount it was measured at in the high half, in one field so
+        //readers measuring it concurrently never pair one's height with the other's modCount; -1 before the first
+        private volatile long measuredHeight = -1;
+
+        void inserted(int depth) {
+            inserts++;
+            insertDepthSum += depth;
+            if (depth > maxInsertDepth) maxInsertDepth = depth;
+        }
+
+        /**
+         * Returns the tree's height, measuring it again only if the tree has changed since the last call
+         * @return height, 0 if empty
+         */
+        int height() {
+            long measured = measuredHeight;
+            if ((int) measured < 0 || (int) (measured >>> 32) != modCount) {
+                measured = (long) modCount << 32 | ScapeGoatTree.this.height();
+                measuredHeight = measured;
+            }
+            return (int) measured;
+        }
+
+        void looked(int comparisons) {
+            lookups.increment();
+            lookupComparisons.add(comparisons);
+        }
+
+        ScapeGoatRebuildEvent beginRebuild() {
+            ScapeGoatRebuildEvent event = new ScapeGoatRebuildEvent();
+            event.begin();
+            return event;
+        }
+
+        void endRebuild(ScapeGoatRebuildEvent event, int nodes, boolean wholeTree, int treeSize) {
+            rebuilds++;
+            rebuiltNodes += nodes;
+            event.end();
+            if (event.shouldCommit()) {
+                event.rebuiltNodes = nodes;
+                event.treeSize = treeSize;
+                event.wholeTree = wholeTree;
+                event.removeTriggered = removeTriggered;
+                event.commit();
+            }
+            removeTriggered = false;
+        }
+    }
+
+    /**
+     * Powers of 1/alpha, from (1/alpha)^0 up to the first one above Integer.MAX_VALUE (no tree is bigger)
+     * @param alpha weight balance parameter
+     * @return table of powers
+     */
+    private static double[] depthPowers(double alpha) {
+        int count = (int) Math.ceil(Math.log(Integer.MAX_VALUE) / Math.log(1.0 / alpha)) + 2;
+        double[] powers = new double[count];
+        for (int d = 0; d < count; d++) {
+            powers[d] = Math.pow(1.0 / alpha, d);
+        }
+        return powers;
+    }
+
+    /**
+     * Moves depthBound to floor(log_(1/alpha)(nodeCount)).  nodeCount usually changes by one between calls,
+     *   so this is O(1) amortized.
+     */
+    private void syncDepthBound() {
+        depthBound = moveDepthBound(depthPowers, depthBound, nodeCount);
+    }
+
+    /**
+     * Moves bound to floor(log_(1/alpha)(count)), one step at a time from where it was.  Shared with the trees
+     *   whose alpha is fixed (see {@link #DEFAULT_DEPTH_POWERS}), which keep their own bound.
+     * @param powers powers of 1/alpha, from {@link #depthPowers}
+     * @param bound previous bound
+     * @param count current node count
+     * @return floor(log_(1/alpha)(count)), 0 for an empty tree
+     */
+    static int moveDepthBound(double[] powers, int bound, int count) {
+        while (bound + 1 < powers.length && powers[bound + 1] <= count) bound++;
+        while (bound > 0 && powers[bound] > count) bound--;
+        return bound;
+    }
+
+    /**
+     * Copies alpha and the rebuild policy of another tree, for trees made by {@link #newTree()}
+     * @param other tree to copy the settings of
+     */
+    protected void copySettings(ScapeGoatTree<K, V> other) {
+        alpha = other.alpha;
+        depthPowers = other.depthPowers;
+        depthBound = 0;
+        heightLimit = Math.max(heightLimit, other.heightLimit);
+        rebuildPolicy = other.rebuildPolicy;
+    }
+
+    /**
+     * Upper bound on the number of levels in this tree, at any size up to Integer.MAX_VALUE.  An insert never
+     *   leaves a node deeper than log_(1/alpha)(n) + 1 levels, and that is below the number of depth powers.
+     *   Lowering alpha does not rebuild, so nodes placed under an earlier, larger alpha can stay that deep: the
+     *   bound is for the largest alpha this tree has had.
+     * @return most levels a root to leaf path can have
+     */
+    int heightLimit() {
+        return heightLimit;
+    }
+
+    /**
+     * Creates a new node for this tree.  Every node the tree allocates goes through here, so subclasses that
+     *   keep extra per-node data can return a subclass of Node.
+     * @param key key to store
+     * @param value value to store
+     * @param parent parent of the new node
+     * @return new leaf node
+     */
+    protected Node<K, V> createNode(K key, V value, Node<K, V> parent) {
+        return new Node<>(key, value, parent, null, null);
+    }
+
+    /**
+     * Recomputes the cached data of node (its subtree size) from its children.  Called bottom-up on every node
+     *   whose subtree changed: the insertion/removal path and every node of a rebuilt subtree.  Subclasses that
+     *   keep more per-node summaries should extend this.
+     * @param node node to update
+     */
+    protected void update(Node<K, V> node) {
+        node.size = 1 + sizeOfSubtree(node.left) + sizeOfSubtree(node.right);
+    }
+
     /**
      * This might be helpful for your debugging
      */
@@ -84,36 +536,19 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
      */
     @Override
     protected Node<K, V> scapeGoatNode(Node<K, V> node) {
-        //
+        //subtree sizes are cached in the nodes, so each step up the insertion path is O(1)
         Node<K, V> curr = node;
+        int steps = 0;
         while (curr != null && curr.parent != null) {
-            if (sizeOfSubtree(curr) > ALPHA_THRESHOLD * sizeOfSubtree(curr.parent)) {
+            steps++;
+            if (sizeOfSubtree(curr) > alpha * sizeOfSubtree(curr.parent)) {
+                if (metrics != null) metrics.scapegoatSteps += steps;
                 return curr.parent;
             }
             curr = curr.parent;
         }
-        //another situation
-        curr = node;
-        while (curr != null && curr.parent != null) {
-            if (sizeOfSubtree(curr.parent) > ALPHA_THRESHOLD * sizeOfSubtree(curr)) {
-                return curr.parent;
-            }
-            curr = curr.parent;
-        }
-//        java.util.Map<Node<K,V>, Integer> cache = new java.util.HashMap<>();
-//        for (Node<K,V> n : path) {
-//            if (!cache.containsKey(n)) cache.put(n, sizeOfSubtree(n));
-//            if (n.parent != null && !cache.containsKey(n.parent)) cache.put(n.parent, sizeOfSubtree(n.parent));
-//        }
-//        // 找第一个违反平衡的
-//        for (Node<K,V> n : path) {
-//            if (n.parent == null) continue;
-//            int sz = cache.get(n);
-//            int parentSz = cache.get(n.parent);
-//            if (sz > ALPHA_THRESHOLD * parentSz) {
-//                return n.parent;
-//            }
-//        }
+        if (metrics != null) metrics.scapegoatSteps += steps;
+        //every ancestor is alpha-weight-balanced, nothing to rebuild
         return null;
     }
 
@@ -131,33 +566,366 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
      */
     @Override
     protected Node<K, V> rebuild(Node<K, V> node) {
-        //
-        //return null;
-        List<Node<K, V>> list = inorder(node);
-        if (list.isEmpty()) return null;
-        //return buildBalanced(list, 0, list.size() - 1, null);
-        return buildBalancedClean(list, 0, list.size() - 1, null);
-    }
-
-    private Node<K,V> buildBalanced(List<Node<K, V>> nodes, int lo, int hi, Node<K, V> parent) {
-        if (lo > hi) return null;
-        int mid = (lo + hi) / 2;
-        Node<K, V> n = nodes.get(mid);
-        n.left = buildBalanced(nodes, lo, mid - 1, n);
-        n.right = buildBalanced(nodes, mid + 1, hi, n);
-        n.parent = parent;
-        return n;
-    }
-    //add cleam
-    private Node<K, V> buildBalancedClean(List<Node<K, V>> nodes, int lo, int hi, Node<K, V> parent) {
-        if (lo > hi) return null;
-        int mid = (lo + hi) / 2;
-        Node<K, V> src = nodes.get(mid);
-        // 避免旧指针遗留造成cycle
-        Node<K, V> n = new Node<>(src.key, src.value, parent, null, null);
-        n.left = buildBalancedClean(nodes, lo, mid - 1, n);
-        n.right = buildBalancedClean(nodes, mid + 1, hi, n);
-        return n;
+        //relinks the existing nodes in place: no intermediate list and no new nodes
+        if (node == null) return null;
+        ScapeGoatRebuildEvent event = metrics == null ? null : metrics.beginRebuild();
+        Node<K, V> parent = node.parent;
+        int n = node.size;
+        vine = flatten(node);
+        Node<K, V> rebuilt = buildFromVine(n, parent);
+        vine = null;
+        if (event != null) metrics.endRebuild(event, n, node == root, nodeCount);
+        return rebuilt;
+    }
+
+    /**
+     * Flattens the subtree rooted at node into a "vine": a sorted linked list running through the
+     *   <code>right</code> pointers, with every <code>left</code> pointer null.  Uses right rotations
+     *   (the first phase of Day-Stout-Warren), so it takes O(n) time and no extra memory.
+     *
+     * @implNote parent pointers and sizes are left stale, {@link #buildFromVine} fixes them.
+     *
+     * @param node root of subtree to flatten
+     * @return first (smallest) node of the vine, or <code>null</code> if node is <code>null</code>
+     */
+    protected Node<K, V> flatten(Node<K, V> node) {
+        Node<K, V> head = null, tail = null, rest = node;
+        while (rest != null) {
+            if (rest.left != null) {
+                //rotate right, moving the left child up into the vine
+                Node<K, V> temp = rest.left;
+                rest.left = temp.right;
+                temp.right = rest;
+                rest = temp;
+                if (tail != null) tail.right = temp;
+            } else {
+                if (head == null) head = rest;
+                tail = rest;
+                rest = rest.right;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Builds a perfectly balanced subtree out of the next n nodes of {@link #vine}, advancing it past them.
+     *   The root of every subtree is the element at floor(size/2) of its sorted range, as in the spec for
+     *   {@link #rebuild}.  Recursion depth is only log2(n) since the output is balanced.
+     *
+     * @param n number of vine nodes to consume
+     * @param parent parent of the subtree being built
+     * @return root of the balanced subtree
+     */
+    private Node<K, V> buildFromVine(int n, Node<K, V> parent) {
+        if (n == 0) return null;
+        int leftSize = n / 2;
+        Node<K, V> left = buildFromVine(leftSize, null);
+        Node<K, V> mid = vine;
+        vine = vine.right;
+        mid.left = left;
+        if (left != null) left.parent = mid;
+        mid.right = buildFromVine(n - leftSize - 1, mid);
+        mid.parent = parent;
+        update(mid);
+        return mid;
+    }
+
+    /**
+     * Replaces the whole tree with a perfectly balanced tree built from a vine.  This is a full rebuild, so
+     *   maxNodeCount is reset to the new nodeCount.
+     * @param head first node of the vine
+     * @param count number of nodes in the vine
+     */
+    protected void replaceWithVine(Node<K, V> head, int count) {
+        ScapeGoatRebuildEvent event = metrics == null ? null : metrics.beginRebuild();
+        vine = head;
+        root = buildFromVine(count, null);
+        vine = null;
+        if (event != null) metrics.endRebuild(event, count, true, count);
+        nodeCount = count;
+        maxNodeCount = count;
+        rebuildPending = false;
+        job = null;
+        modCount++;
+    }
+
+    /**
+     * A change made to the live tree while a {@link RebuildJob} is running
+     *
+     * @param <K> key type
+     * @param <V> value type
+     */
+    private static final class Change<K, V> {
+        final K key;
+        final V value;
+        final boolean removed;
+
+        Change(K key, V value, boolean removed) {
+            this.key = key;
+            this.value = value;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Remove's full rebuild under {@link RebuildPolicy#INCREMENTAL}, done a bounded number of steps at a time
+     *   from {@link #advance()}, which every add and remove calls while the job is running:
+     * <ol>
+     *   <li>copy: walk the live tree in key order, copying each entry into a fresh node on a vine</li>
+     *   <li>build: turn the vine into a balanced shadow tree, like {@link #buildFromVine} but with an explicit
+     *   stack so it can stop and resume anywhere</li>
+     *   <li>replay: apply the changes made to already-copied keys since they were copied</li>
+     *   <li>swap: the shadow tree becomes this tree</li>
+     * </ol>
+     * The live tree stays correct and fully usable throughout; it is only the rebalancing that is late.  Needs
+     *   {@link #newTree()} to return this tree's class, so the shadow tree makes the same kind of nodes.
+     */
+    private final class RebuildJob {
+        private final ScapeGoatTree<K, V> shadow = newTree();
+        //copy phase: vine of copied nodes, and the last live node copied (only valid while modCount is unchanged)
+        private Node<K, V> head, tail, copyCursor;
+        private K lastCopiedKey;
+        private int copied = 0, cursorModCount;
+        private boolean copyDone = false;
+        //build phase: explicit stack of {subtree size, stage} frames, and the roots waiting for a right subtree
+        private final List<int[]> frames = new ArrayList<>();
+        private final List<Node<K, V>> mids = new ArrayList<>();
+        private Node<K, V> built;
+        private boolean buildDone = false;
+        //changes to keys that were already copied, in order, and how many have been replayed onto the shadow
+        private final List<Change<K, V>> changes = new ArrayList<>();
+        private int replayed = 0;
+
+        RebuildJob() {
+            shadow.copySettings(ScapeGoatTree.this);
+            //removes during replay only mark a rebuild as due, which advance() then drops
+            shadow.rebuildPolicy = RebuildPolicy.DEFERRED;
+        }
+
+        /**
+         * Records a change just made to the live tree, then does the next chunk of the job
+         * @param key key added or removed
+         * @param value value added
+         * @param removed whether key was removed
+         */
+        void changed(K key, V value, boolean removed) {
+            //keys not copied yet need nothing, the copy picks up their state when it gets there
+            if (copyDone || lastCopiedKey != null && compare(key, lastCopiedKey) <= 0) {
+                changes.add(new Change<>(key, value, removed));
+            }
+            advance();
+        }
+
+        /**
+         * Does up to INCREMENTAL_STEPS steps of whichever phases are left, and swaps when done
+         */
+        void advance() {
+            int steps = INCREMENTAL_STEPS;
+            for (; steps > 0 && !copyDone; steps--) {
+                copyStep();
+            }
+            for (; steps > 0 && copyDone && !buildDone; steps--) {
+                buildStep();
+            }
+            for (; steps > 0 && buildDone && replayed < changes.size(); steps--) {
+                Change<K, V> change = changes.get(replayed);
+                changes.set(replayed++, null);
+                //never let the shadow do a full rebuild of its own, the live tree checks again after the swap
+                shadow.rebuildPending = false;
+                if (change.removed) shadow.remove(change.key);
+                else shadow.add(change.key, change.value);
+            }
+            if (buildDone && replayed == changes.size()) {
+                //caught up: the shadow holds exactly the live entries
+                job = null;
+                root = shadow.root;
+                nodeCount = shadow.nodeCount;
+                maxNodeCount = shadow.maxNodeCount;
+                modCount++;
+                if (metrics != null) {
+                    //the work was spread over many operations, so the event only marks the swap
+                    metrics.removeTriggered = true;
+                    metrics.endRebuild(metrics.beginRebuild(), nodeCount, true, nodeCount);
+                }
+            }
+        }
+
+        /**
+         * Copies the next live entry onto the vine.  Follows the live node when the tree has not changed since the
+         *   last step, and searches for the next key otherwise.
+         */
+        private void copyStep() {
+            Node<K, V> next;
+            if (copyCursor != null && modCount == cursorModCount) {
+                next = nextNode(copyCursor);
+            } else {
+                next = lastCopiedKey == null ? firstNode() : higherNode(lastCopiedKey);
+            }
+            if (next == null) {
+                copyDone = true;
+                frames.add(new int[]{copied, 0});
+                return;
+            }
+            Node<K, V> copy = createNode(next.key, next.value, null);
+            if (tail == null) head = copy;
+            else tail.right = copy;
+            tail = copy;
+            copied++;
+            lastCopiedKey = next.key;
+            copyCursor = next;
+            cursorModCount = modCount;
+        }
+
+        /**
+         * One step of an iterative buildFromVine.  Stage 0 of a frame builds its left subtree, stage 1 takes the
+         *   next vine node as its root and builds its right subtree, stage 2 links the right subtree and hands the
+         *   finished root to the frame below.
+         */
+        private void buildStep() {
+            int[] frame = frames.get(frames.size() - 1);
+            int n = frame[0];
+            if (n == 0) {
+                frames.remove(frames.size() - 1);
+                built = null;
+            } else if (frame[1] == 0) {
+                frame[1] = 1;
+                frames.add(new int[]{n / 2, 0});
+            } else if (frame[1] == 1) {
+                Node<K, V> mid = head;
+                head = head.right;
+                mid.left = built;
+                if (built != null) built.parent = mid;
+                mids.add(mid);
+                frame[1] = 2;
+                frames.add(new int[]{n - n / 2 - 1, 0});
+            } else {
+                Node<K, V> mid = mids.remove(mids.size() - 1);
+                mid.right = built;
+                if (built != null) built.parent = mid;
+                update(mid);
+                frames.remove(frames.size() - 1);
+                built = mid;
+            }
+            if (frames.isEmpty()) {
+                buildDone = true;
+                if (built != null) built.parent = null;
+                shadow.root = built;
+                shadow.nodeCount = copied;
+                shadow.maxNodeCount = copied;
+            }
+        }
+    }
+
+    /**
+     * Creates a new empty tree of the same kind as this one (same class and configuration), used by operations
+     *   that hand back part of this tree, like {@link #split}.  Subclasses with their own node type or
+     *   constructor parameters must override this.
+     * @return new empty tree
+     */
+    protected ScapeGoatTree<K, V> newTree() {
+        return new ScapeGoatTree<>(comparator);
+    }
+
+    /**
+     * Removes every entry with a key in [from, to].
+     * <p>
+     * Small ranges are removed one by one.  Larger ones are cut out of the tree's sorted vine in one pass and
+     *   the remainder is rebuilt once, O(n) total, rather than doing a descent (and possibly a full rebuild)
+     *   per key.  Either way at most one rebalance of the whole tree happens.
+     *
+     * @param from smallest key to remove
+     * @param to largest key to remove
+     * @return number of entries removed
+     * @throws IllegalArgumentException if from or to is <code>null</code>
+     */
+    public int removeRange(K from, K to) throws IllegalArgumentException {
+        if (from == null || to == null) throw new IllegalArgumentException("Null range bound");
+        if (compare(from, to) > 0) return 0;
+        int k = countBelow(to, true) - countBelow(from, false);
+        if (k <= 0) return 0;
+
+        //k removals cost about k*log2(n) steps, cutting the vine costs n
+        if ((long) k * (32 - Integer.numberOfLeadingZeros(nodeCount)) < nodeCount) {
+            for (int i = 0; i < k; i++) {
+                removeNode(ceilingNode(from));
+            }
+            return k;
+        }
+
+        Node<K, V> rest = flatten(root), head = null, tail = null;
+        int count = 0;
+        while (rest != null) {
+            Node<K, V> next = rest.right;
+            if (compare(rest.key, from) < 0 || compare(rest.key, to) > 0) {
+                if (tail == null) head = rest;
+                else tail.right = rest;
+                tail = rest;
+                count++;
+            }
+            rest = next;
+        }
+        replaceWithVine(head, count);
+        return k;
+    }
+
+    /**
+     * Splits this tree in two: every entry with a key greater than or equal to key is moved into a new tree,
+     *   which is returned.  Both halves are rebuilt perfectly balanced from the tree's sorted vine in a single
+     *   O(n) pass, with no per-key descents and no node allocation.
+     *
+     * @param key first key of the returned tree
+     * @return new tree (of the same kind as this one) holding the entries with keys &gt;= key
+     * @throws IllegalArgumentException if key is <code>null</code>
+     */
+    public ScapeGoatTree<K, V> split(K key) throws IllegalArgumentException {
+        if (key == null) throw new IllegalArgumentException("Cannot split at a null key");
+        ScapeGoatTree<K, V> upper = newTree();
+        upper.copySettings(this);
+        int lowerCount = rank(key);
+        if (lowerCount == nodeCount) return upper;
+
+        Node<K, V> lowerHead = flatten(root), upperHead = lowerHead;
+        Node<K, V> lowerTail = null;
+        for (int i = 0; i < lowerCount; i++) {
+            lowerTail = upperHead;
+            upperHead = upperHead.right;
+        }
+        if (lowerTail != null) lowerTail.right = null;
+        int upperCount = nodeCount - lowerCount;
+        replaceWithVine(lowerCount == 0 ? null : lowerHead, lowerCount);
+        upper.replaceWithVine(upperHead, upperCount);
+        return upper;
+    }
+
+    /**
+     * Moves every entry of other, all of whose keys must be greater than every key in this tree, onto the end of
+     *   this tree, leaving other empty.  The two sorted vines are spliced and rebuilt once, O(n + m).  The inverse
+     *   of {@link #split}.
+     *
+     * @param other tree to take the entries of, of the same kind as this one
+     * @throws IllegalArgumentException if other is this tree, is a different kind of tree (or has a different
+     *   comparator), or has a key that is not greater than every key in this tree.  Neither tree is changed in
+     *   that case.
+     */
+    public void join(ScapeGoatTree<K, V> other) throws IllegalArgumentException {
+        if (other == this || other.getClass() != getClass() || !Objects.equals(comparator, other.comparator))
+            throw new IllegalArgumentException("Can only join a different tree of the same kind");
+        if (other.root == null) return;
+        Node<K, V> last = lastNode(), otherFirst = other.firstNode();
+        if (last != null && compare(last.key, otherFirst.key) >= 0)
+            throw new IllegalArgumentException("Joined keys must all be greater than " + last.key +
+                    ", got " + otherFirst.key);
+
+        Node<K, V> head = flatten(root), otherHead = other.flatten(other.root);
+        if (head == null) {
+            head = otherHead;
+        } else {
+            //flatten leaves the old last node as the tail of the vine
+            last.right = otherHead;
+        }
+        int count = nodeCount + other.nodeCount;
+        other.clear();
+        replaceWithVine(head, count);
     }
 
     /**
@@ -182,10 +950,14 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
     public void add(K key, V value) {
         //
         if (key == null) return;
+        if (rebuildPending) rebalance();
         if (root == null) {
-            root = new Node<>(key, value, null, null, null);
+            root = createNode(key, value, null);
             nodeCount = 1;
             maxNodeCount = 1;
+            modCount++;
+            if (metrics != null) metrics.inserted(0);
+            if (job != null) job.changed(key, value, false);
             return;
         }
         Node<K, V> curr = root;
@@ -194,33 +966,251 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         int depth = 0;
         while (curr != null) {
             parent = curr;
-            cmp = key.compareTo(curr.key);
+            cmp = compare(key, curr.key);
             if (cmp == 0) return; // duplicate
             depth++;
             if (cmp < 0) curr = curr.left;
             else curr = curr.right;
         }
-        Node<K, V> newNode = new Node<>(key, value, parent, null, null);
+        Node<K, V> newNode = createNode(key, value, parent);
         if (cmp < 0) parent.left = newNode;
         else parent.right = newNode;
+        for (Node<K, V> p = parent; p != null; p = p.parent) update(p);
         nodeCount++;
-        double threshold = Math.log(nodeCount) / Math.log(1.0 / ALPHA_THRESHOLD);
-        if (depth + 1 > threshold) {
+        modCount++;
+        if (metrics != null) metrics.inserted(depth);
+        //depth + 1 > log_(1/alpha)(nodeCount) exactly when it is > the floor of that, depth being an integer
+        syncDepthBound();
+        if (depth + 1 > depthBound) {
             Node<K, V> scapegoat = scapeGoatNode(newNode);
-            if (scapegoat != null) {
-                Node<K, V> rebuilt = rebuild(scapegoat);
-                if (scapegoat.parent == null) {
-                    root = rebuilt;
-                    if (root != null) root.parent = null;
-                } else {
-                    if (scapegoat.parent.left == scapegoat) scapegoat.parent.left = rebuilt;
-                    else scapegoat.parent.right = rebuilt;
-                    if (rebuilt != null) rebuilt.parent = scapegoat.parent;
+            if (scapegoat != null) rebuildInPlace(scapegoat);
+        }
+        if (nodeCount > maxNodeCount) maxNodeCount = nodeCount;
+        if (job != null) job.changed(key, value, false);
+    }
+
+    /**
+     * Rebuilds the subtree rooted at node and hangs the result where node was
+     * @param node root of subtree to rebuild
+     */
+    private void rebuildInPlace(Node<K, V> node) {
+        //rebuild relinks node itself, so remember where the subtree hangs first
+        Node<K, V> parent = node.parent;
+        Node<K, V> rebuilt = rebuild(node);
+        if (parent == null) {
+            root = rebuilt;
+        } else if (parent.left == node) {
+            parent.left = rebuilt;
+        } else {
+            parent.right = rebuilt;
+        }
+    }
+
+    /**
+     * Climbs from finger, the last node visited by the search for a smaller key, to the lowest ancestor whose
+     *   subtree can hold key.  A node that is a left child only holds keys below its parent, so that is the one
+     *   comparison needed per step; right children hold everything up to their parent's bound already.
+     * @param finger node to start at
+     * @param key key to search for next, not less than the previous key
+     * @return node to start the descent for key at
+     */
+    private Node<K, V> climb(Node<K, V> finger, K key) {
+        while (finger.parent != null) {
+            Node<K, V> parent = finger.parent;
+            if (finger == parent.left && compare(key, parent.key) < 0) break;
+            finger = parent;
+        }
+        return finger;
+    }
+
+    /**
+     * Looks up a sorted batch of keys in one left-to-right pass.  Each search starts from where the previous one
+     *   ended and only climbs as far as the two keys' common ancestor, so neighbouring keys share their path
+     *   prefix instead of each descending from the root.
+     *
+     * @param keys keys in non-decreasing order
+     * @return values associated with each key, in the same order, <code>null</code> for keys not in the tree
+     * @throws IllegalArgumentException if a key is null or keys are out of order
+     */
+    public List<V> getAll(List<K> keys) throws IllegalArgumentException {
+        List<V> res = new ArrayList<>(keys.size());
+        Node<K, V> finger = root;
+        K prev = null;
+        int index = 0;
+        for (K key : keys) {
+            if (key == null) throw new IllegalArgumentException("Null key at index " + index);
+            if (prev != null && compare(key, prev) < 0)
+                throw new IllegalArgumentException("Keys must be sorted, but index " + index + " (" + key +
+                        ") is less than the one before it (" + prev + ")");
+            prev = key;
+            index++;
+            if (finger == null) {
+                res.add(null);
+                continue;
+            }
+            Node<K, V> curr = climb(finger, key), found = null;
+            while (curr != null) {
+                finger = curr;
+                int cmp = compare(key, curr.key);
+                if (cmp == 0) {
+                    found = curr;
+                    break;
                 }
+                curr = cmp < 0 ? curr.left : curr.right;
             }
+            res.add(found == null ? null : found.value);
+        }
+        return res;
+    }
+
+    /**
+     * Adds a sorted batch of entries, skipping keys already in the tree just like {@link #add}.
+     * <p>
+     * Each insertion point is found from the previous one, as in {@link #getAll}.  Scapegoat checks are put off
+     *   until the whole batch is in, and then run largest subtree first, so a subtree that several new nodes made
+     *   unbalanced is rebuilt once rather than once per node (or once inside a bigger rebuild that follows).
+     *   Batches big enough that touching every node is cheaper go through {@link #addAllSorted} instead.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or the
+     *   lengths differ.  The tree is not changed in that case.
+     */
+    public void putAll(List<K> keys, List<V> values) throws IllegalArgumentException {
+        checkSameLength(keys.size(), values.size());
+        K prev = null;
+        int index = 0;
+        for (K key : keys) {
+            checkSortedKey(prev, key, index++);
+            prev = key;
+        }
+        int m = keys.size();
+        if (m == 0) return;
+        //same cutoff as addAllSorted: m descents against a merge over all n + m nodes
+        if (root == null || (long) m * (32 - Integer.numberOfLeadingZeros(nodeCount)) >= nodeCount) {
+            addAllSorted(keys, values);
+            return;
+        }
+        if (rebuildPending) rebalance();
+
+        //new nodes that went in too deep, with their depth
+        List<Node<K, V>> deep = new ArrayList<>();
+        Iterator<V> valueIt = values.iterator();
+        Node<K, V> finger = root;
+        for (K key : keys) {
+            V value = valueIt.next();
+            Node<K, V> curr = climb(finger, key), parent = null;
+            int cmp = 0;
+            while (curr != null) {
+                parent = curr;
+                cmp = compare(key, curr.key);
+                if (cmp == 0) break;
+                curr = cmp < 0 ? curr.left : curr.right;
+            }
+            if (cmp == 0) {
+                finger = parent;
+                continue; // duplicate
+            }
+            Node<K, V> newNode = createNode(key, value, parent);
+            if (cmp < 0) parent.left = newNode;
+            else parent.right = newNode;
+            int depth = 0;
+            for (Node<K, V> p = parent; p != null; p = p.parent, depth++) update(p);
+            nodeCount++;
+            modCount++;
+            if (metrics != null) metrics.inserted(depth);
+            syncDepthBound();
+            if (depth + 1 > depthBound) deep.add(newNode);
+            finger = newNode;
+            if (job != null) {
+                job.changed(key, value, false);
+                if (job == null) {
+                    //an incremental rebuild just swapped in a new, balanced tree
+                    finger = root;
+                    deep.clear();
+                }
+            }
+        }
+
+        //each deep node's scapegoat as of now, biggest first, so nested ones are covered by the outer rebuild
+        List<Node<K, V>> scapegoats = new ArrayList<>(deep.size());
+        for (Node<K, V> node : deep) scapegoats.add(scapeGoatNode(node));
+        List<Integer> order = new ArrayList<>(deep.size());
+        for (int i = 0; i < deep.size(); i++) {
+            if (scapegoats.get(i) != null) order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(scapegoats.get(b).size, scapegoats.get(a).size));
+        for (int i : order) {
+            Node<K, V> node = deep.get(i);
+            int depth = 0;
+            for (Node<K, V> p = node.parent; p != null; p = p.parent) depth++;
+            //already fixed by an earlier rebuild
+            if (depth + 1 <= depthBound) continue;
+            Node<K, V> scapegoat = scapeGoatNode(node);
+            if (scapegoat != null) rebuildInPlace(scapegoat);
         }
         if (nodeCount > maxNodeCount) maxNodeCount = nodeCount;
+    }
 
+    /**
+     * Adds a sorted batch of entries.  Keys already in the tree are skipped, just like {@link #add}.
+     * <p>
+     * Large batches are merged with the existing tree in a single pass: the tree is flattened into its
+     *   sorted vine, the batch is spliced in, and the whole tree is rebuilt once, for O(n + m) total
+     *   instead of m separate descents and rebuilds.  Batches small enough that m descents are cheaper
+     *   than touching all n nodes just use {@link #add}.
+     *
+     * @param keys keys in strictly increasing order
+     * @param values values to associate with each key, in the same order
+     * @throws IllegalArgumentException if a key is null, keys are not strictly increasing, or the
+     *   lengths differ.  The tree is not changed in that case.
+     */
+    public void addAllSorted(List<K> keys, List<V> values) throws IllegalArgumentException {
+        checkSameLength(keys.size(), values.size());
+        K prev = null;
+        int index = 0;
+        for (K key : keys) {
+            checkSortedKey(prev, key, index++);
+            prev = key;
+        }
+
+        int m = keys.size();
+        if (m == 0) return;
+        //m descents cost about m*log2(n) steps, a merge costs n + m
+        if ((long) m * (32 - Integer.numberOfLeadingZeros(nodeCount)) < nodeCount) {
+            Iterator<V> valueIt = values.iterator();
+            for (K key : keys) {
+                add(key, valueIt.next());
+            }
+            return;
+        }
+
+        Iterator<K> keyIt = keys.iterator();
+        Iterator<V> valueIt = values.iterator();
+        K key = keyIt.next();
+        V value = valueIt.next();
+        Node<K, V> old = flatten(root), head = null, tail = null;
+        int count = 0;
+        while (old != null || key != null) {
+            Node<K, V> next;
+            int cmp = key == null ? 1 : old == null ? -1 : compare(key, old.key);
+            if (cmp < 0) {
+                next = createNode(key, value, null);
+            } else {
+                next = old;
+                old = old.right;
+            }
+            if (cmp <= 0) {
+                //batch entry consumed (either inserted or a duplicate of an existing key)
+                key = keyIt.hasNext() ? keyIt.next() : null;
+                value = valueIt.hasNext() ? valueIt.next() : null;
+            }
+            if (tail == null) head = next;
+            else tail.right = next;
+            tail = next;
+            count++;
+        }
+        replaceWithVine(head, count);
     }
 
     /**
@@ -245,7 +1235,21 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         Node<K, V> target = findNode(key);
 
         if (target == null) return;
+        removeNode(target);
+    }
 
+    /**
+     * Removes a node that is in the tree, following the same policy as {@link #remove}, including the full
+     *   rebuild once nodeCount drops to alpha * maxNodeCount (right away, or later under
+     *   {@link RebuildPolicy#DEFERRED}).
+     *
+     * @apiNote if node has two children, its successor's entry is moved into it and the successor's node is
+     *   unlinked instead, so node may stay in the tree holding a different entry.
+     *
+     * @param target node to remove
+     */
+    protected void removeNode(Node<K, V> target) {
+        K removedKey = target.key;
         if (target.left != null && target.right != null) {
             Node<K, V> succ = succNode(target);
             target.key = succ.key;
@@ -261,13 +1265,27 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         } else {
             target.parent.right = child;
         }
+        for (Node<K, V> p = target.parent; p != null; p = p.parent) update(p);
         nodeCount--;
-        if (nodeCount <= ALPHA_THRESHOLD * maxNodeCount) {
-            root = rebuild(root);
-            if (root != null) root.parent = null;
-            maxNodeCount = nodeCount;
+        modCount++;
+        if (job != null) {
+            job.changed(removedKey, null, true);
+        } else if (nodeCount <= alpha * maxNodeCount) {
+            //under DEFERRED every later remove is past the threshold too, only the first one makes the rebuild due
+            if (metrics != null && !rebuildPending) metrics.removeRebuilds++;
+            if (rebuildPolicy == RebuildPolicy.DEFERRED) {
+                rebuildPending = true;
+            } else if (rebuildPolicy == RebuildPolicy.INCREMENTAL && nodeCount > 0 &&
+                    newTree().getClass() == getClass()) {
+                job = new RebuildJob();
+                job.advance();
+            } else {
+                if (metrics != null) metrics.removeTriggered = root != null;
+                root = rebuild(root);
+                if (root != null) root.parent = null;
+                maxNodeCount = nodeCount;
+            }
         }
-
     }
 
     /**
@@ -287,13 +1305,16 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         //
         if (key == null) return null;
         Node<K, V> curr = root;
+        int comparisons = 0;
         while (curr != null) {
-            int cmp = key.compareTo(curr.key);
-            if (cmp == 0) return curr;
+            int cmp = compare(key, curr.key);
+            comparisons++;
+            if (cmp == 0) break;
             else if (cmp < 0) curr = curr.left;
             else curr = curr.right;
         }
-        return null;
+        if (metrics != null) metrics.looked(comparisons);
+        return curr;
     }
 
     /**
@@ -305,6 +1326,9 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         root = null;
         nodeCount = 0;
         maxNodeCount = 0;
+        rebuildPending = false;
+        job = null;
+        modCount++;
     }
 
     /**
@@ -315,14 +1339,525 @@ public class ScapeGoatTree<K extends Comparable<K>, V> extends ScapeGoatTreeInte
         //return -1;
         return nodeCount;
     }
-    private int sizeOfSubtree(Node<K, V> node, java.util.Set<Node<K, V>> seen) {
-        if (node == null) return 0;
-        if (seen.contains(node)) {
-            // 发现环,warning
-            return 0;
+
+    /**
+     * Returns the cached size of the subtree rooted at node (inclusive of self) in O(1).
+     * @param node subtree to count
+     * @return size of subtree rooted at node
+     */
+    @Override
+    protected int sizeOfSubtree(Node<K, V> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Returns the node with the smallest key, or <code>null</code> if the tree is empty
+     * @return leftmost node
+     */
+    protected Node<K, V> firstNode() {
+        Node<K, V> curr = root;
+        if (curr == null) return null;
+        while (curr.left != null) curr = curr.left;
+        return curr;
+    }
+
+    /**
+     * Returns the node with the largest key, or <code>null</code> if the tree is empty
+     * @return rightmost node
+     */
+    protected Node<K, V> lastNode() {
+        Node<K, V> curr = root;
+        if (curr == null) return null;
+        while (curr.right != null) curr = curr.right;
+        return curr;
+    }
+
+    /**
+     * Returns the node after the passed in node in key order, anywhere in the tree (unlike {@link #succNode},
+     *   which only looks inside the node's own subtree).  Follows parent pointers, so a full walk is O(1)
+     *   amortized per step and needs no stack.
+     * @param node node to find the next node for
+     * @return next node, or <code>null</code> if node is the last
+     */
+    protected Node<K, V> nextNode(Node<K, V> node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) node = node.left;
+            return node;
         }
-        seen.add(node);
-        return 1 + sizeOfSubtree(node.left, seen) + sizeOfSubtree(node.right, seen);
+        Node<K, V> p = node.parent;
+        while (p != null && node == p.right) {
+            node = p;
+            p = p.parent;
+        }
+        return p;
     }
-}
 
+    /**
+     * Returns the node before the passed in node in key order, anywhere in the tree.  Mirror of {@link #nextNode}.
+     * @param node node to find the previous node for
+     * @return previous node, or <code>null</code> if node is the first
+     */
+    protected Node<K, V> prevNode(Node<K, V> node) {
+        if (node.left != null) {
+            node = node.left;
+            while (node.right != null) node = node.right;
+            return node;
+        }
+        Node<K, V> p = node.parent;
+        while (p != null && node == p.left) {
+            node = p;
+            p = p.parent;
+        }
+        return p;
+    }
+
+    /**
+     * Returns the node with the smallest key greater than or equal to key
+     * @param key key to search for
+     * @return ceiling node, or <code>null</code> if every key is less than key (or key is <code>null</code>)
+     */
+    protected Node<K, V> ceilingNode(K key) {
+        if (key == null) return null;
+        Node<K, V> best = null, curr = root;
+        while (curr != null) {
+            int cmp = compare(key, curr.key);
+            if (cmp == 0) return curr;
+            if (cmp < 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the rank of key: the number of keys in the tree strictly less than it.  O(log n) using the cached
+     *   subtree sizes.  Works whether or not key is in the tree; if it is, this is its 0-based position in key
+     *   order.
+     *
+     * @param key key to rank
+     * @return number of keys less than key
+     * @throws IllegalArgumentException if key is <code>null</code>
+     */
+    public int rank(K key) throws IllegalArgumentException {
+        if (key == null) throw new IllegalArgumentException("Cannot rank a null key");
+        return countBelow(key, false);
+    }
+
+    /**
+     * Counts the keys less than key, or less than or equal to it if inclusive, in one descent
+     * @param key key to count up to
+     * @param inclusive whether key itself counts
+     * @return number of keys below (or at) key
+     */
+    private int countBelow(K key, boolean inclusive) {
+        int rank = 0;
+        Node<K, V> curr = root;
+        while (curr != null) {
+            int cmp = compare(key, curr.key);
+            if (cmp <= 0) {
+                if (cmp == 0) return rank + sizeOfSubtree(curr.left) + (inclusive ? 1 : 0);
+                curr = curr.left;
+            } else {
+                rank += 1 + sizeOfSubtree(curr.left);
+                curr = curr.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the entry at the given 0-based position in key order, in O(log n).
+     *
+     * @param index position of the entry, 0 is the smallest key
+     * @return immutable copy of the entry at index
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    public Map.Entry<K, V> select(int index) throws IndexOutOfBoundsException {
+        return entryOf(selectNode(index));
+    }
+
+    /**
+     * Returns the entry at the given percentile of key order (nearest-rank method), in O(log n).  0 is the
+     *   smallest key, 1 the largest, and e.g. 0.99 the entry at or below which 99% of the keys fall.
+     *
+     * @param fraction percentile as a fraction in [0, 1]
+     * @return immutable copy of the entry at that percentile
+     * @throws IllegalArgumentException if fraction is not in [0, 1]
+     * @throws IndexOutOfBoundsException if the tree is empty
+     */
+    public Map.Entry<K, V> percentile(double fraction) throws IllegalArgumentException, IndexOutOfBoundsException {
+        if (!(fraction >= 0 && fraction <= 1))
+            throw new IllegalArgumentException("Percentile " + fraction + " not in [0, 1]");
+        return select(Math.max(0, (int) Math.ceil(fraction * nodeCount) - 1));
+    }
+
+    /**
+     * Returns the node at the given 0-based position in key order
+     * @param index position of the node
+     * @return node at index
+     * @throws IndexOutOfBoundsException if index is not in [0, size())
+     */
+    protected Node<K, V> selectNode(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= nodeCount)
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + nodeCount);
+        Node<K, V> curr = root;
+        while (true) {
+            int leftSize = sizeOfSubtree(curr.left);
+            if (index < leftSize) {
+                curr = curr.left;
+            } else if (index == leftSize) {
+                return curr;
+            } else {
+                index -= leftSize + 1;
+                curr = curr.right;
+            }
+        }
+    }
+
+    /**
+     * Returns the entry with the largest key less than or equal to key, in one O(log n) descent
+     * @param key key to search for
+     * @return immutable copy of the entry, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public Map.Entry<K, V> floorEntry(K key) { return entryOf(floorNode(key)); }
+
+    /**
+     * Returns the largest key less than or equal to key, in one O(log n) descent
+     * @param key key to search for
+     * @return floor key, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public K floorKey(K key) { return keyOf(floorNode(key)); }
+
+    /**
+     * Returns the entry with the smallest key greater than or equal to key, in one O(log n) descent
+     * @param key key to search for
+     * @return immutable copy of the entry, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public Map.Entry<K, V> ceilingEntry(K key) { return entryOf(ceilingNode(key)); }
+
+    /**
+     * Returns the smallest key greater than or equal to key, in one O(log n) descent
+     * @param key key to search for
+     * @return ceiling key, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public K ceilingKey(K key) { return keyOf(ceilingNode(key)); }
+
+    /**
+     * Returns the entry with the largest key strictly less than key, in one O(log n) descent
+     * @param key key to search for
+     * @return immutable copy of the entry, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public Map.Entry<K, V> lowerEntry(K key) { return entryOf(lowerNode(key)); }
+
+    /**
+     * Returns the largest key strictly less than key, in one O(log n) descent
+     * @param key key to search for
+     * @return lower key, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public K lowerKey(K key) { return keyOf(lowerNode(key)); }
+
+    /**
+     * Returns the entry with the smallest key strictly greater than key, in one O(log n) descent
+     * @param key key to search for
+     * @return immutable copy of the entry, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public Map.Entry<K, V> higherEntry(K key) { return entryOf(higherNode(key)); }
+
+    /**
+     * Returns the smallest key strictly greater than key, in one O(log n) descent
+     * @param key key to search for
+     * @return higher key, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    public K higherKey(K key) { return keyOf(higherNode(key)); }
+
+    /**
+     * Returns the entry with the smallest key
+     * @return immutable copy of the entry, or <code>null</code> if the tree is empty
+     */
+    public Map.Entry<K, V> firstEntry() { return entryOf(firstNode()); }
+
+    /**
+     * Returns the smallest key
+     * @return first key, or <code>null</code> if the tree is empty
+     */
+    public K firstKey() { return keyOf(firstNode()); }
+
+    /**
+     * Returns the entry with the largest key
+     * @return immutable copy of the entry, or <code>null</code> if the tree is empty
+     */
+    public Map.Entry<K, V> lastEntry() { return entryOf(lastNode()); }
+
+    /**
+     * Returns the largest key
+     * @return last key, or <code>null</code> if the tree is empty
+     */
+    public K lastKey() { return keyOf(lastNode()); }
+
+    /**
+     * Removes and returns the entry with the smallest key, so the tree can be used as a priority queue.
+     *   One descent to the leftmost node, which is unlinked directly (no second search by key).
+     * @return the removed entry, or <code>null</code> if the tree is empty
+     */
+    public Map.Entry<K, V> pollFirstEntry() {
+        Node<K, V> node = firstNode();
+        Map.Entry<K, V> entry = entryOf(node);
+        if (node != null) removeNode(node);
+        return entry;
+    }
+
+    /**
+     * Removes and returns the entry with the largest key.  Mirror of {@link #pollFirstEntry}.
+     * @return the removed entry, or <code>null</code> if the tree is empty
+     */
+    public Map.Entry<K, V> pollLastEntry() {
+        Node<K, V> node = lastNode();
+        Map.Entry<K, V> entry = entryOf(node);
+        if (node != null) removeNode(node);
+        return entry;
+    }
+
+    /**
+     * Returns the node with the largest key less than or equal to key
+     * @param key key to search for
+     * @return floor node, or <code>null</code> if every key is greater than key (or key is <code>null</code>)
+     */
+    protected Node<K, V> floorNode(K key) {
+        if (key == null) return null;
+        Node<K, V> best = null, curr = root;
+        while (curr != null) {
+            int cmp = compare(key, curr.key);
+            if (cmp == 0) return curr;
+            if (cmp > 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the node with the largest key strictly less than key
+     * @param key key to search for
+     * @return lower node, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    protected Node<K, V> lowerNode(K key) {
+        if (key == null) return null;
+        Node<K, V> best = null, curr = root;
+        while (curr != null) {
+            if (compare(key, curr.key) > 0) {
+                best = curr;
+                curr = curr.right;
+            } else {
+                curr = curr.left;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the node with the smallest key strictly greater than key
+     * @param key key to search for
+     * @return higher node, or <code>null</code> if there is none (or key is <code>null</code>)
+     */
+    protected Node<K, V> higherNode(K key) {
+        if (key == null) return null;
+        Node<K, V> best = null, curr = root;
+        while (curr != null) {
+            if (compare(key, curr.key) < 0) {
+                best = curr;
+                curr = curr.left;
+            } else {
+                curr = curr.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Copies a node's entry out so the node itself is never exposed
+     * @param node node to copy
+     * @return immutable entry, or <code>null</code> if node is <code>null</code>
+     */
+    protected Map.Entry<K, V> entryOf(Node<K, V> node) {
+        return node == null ? null : new AbstractMap.SimpleImmutableEntry<>(node.key, node.value);
+    }
+
+    /**
+     * Null-safe key of a node
+     * @param node node to read
+     * @return key of node, or <code>null</code> if node is <code>null</code>
+     */
+    private K keyOf(Node<K, V> node) {
+        return node == null ? null : node.key;
+    }
+
+    /**
+     * Returns a lazy iterator over the entries of the tree in key order.  Each step is O(1) amortized and no
+     *   list of the tree's contents is built.  The entries are immutable copies, so the tree's nodes are never
+     *   exposed.
+     *
+     * @apiNote the iterator fails fast with a {@link ConcurrentModificationException} if the tree is
+     *   structurally modified while iterating.
+     *
+     * @return iterator over the entries in key order
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<>() {
+            private Node<K, V> next = firstNode();
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (next == null) throw new NoSuchElementException();
+                Node<K, V> curr = next;
+                next = nextNode(curr);
+                return entryOf(curr);
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over the entries of the tree in key order, backed by {@link #iterator()}
+     * @return sized, ordered spliterator over the entries
+     */
+    @Override
+    public Spliterator<Map.Entry<K, V>> spliterator() {
+        return Spliterators.spliterator(iterator(), nodeCount,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Returns a sequential stream over the entries of the tree in key order
+     * @return stream of entries
+     */
+    public Stream<Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Packs the tree into an immutable, read-optimized copy in O(n), see {@link FrozenScapeGoatTree}.  Later
+     *   changes to this tree are not reflected in the copy.
+     * @return frozen copy of the tree
+     */
+    public FrozenScapeGoatTree<K, V> freeze() {
+        return new FrozenScapeGoatTree<>(this);
+    }
+
+    /**
+     * Returns a new cursor over this tree.  The cursor starts out unpositioned.
+     * @return new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Movable position in the tree, for scans that start at a key and go forwards or backwards without
+     *   allocating anything per step.  Like the iterator, it walks parent pointers, so each step is O(1)
+     *   amortized, and it fails fast with a {@link ConcurrentModificationException} if the tree is structurally
+     *   modified after the cursor was last positioned with one of the seek functions.
+     */
+    public class Cursor {
+        private Node<K, V> curr;
+        private int expectedModCount;
+
+        private Cursor() { }
+
+        /**
+         * Positions the cursor on the smallest key greater than or equal to key.  To land on the largest key
+         *   less than or equal to key instead, call {@link #prev()} when {@link #key()} is greater than key.
+         * @param key key to seek to
+         * @return whether the cursor is positioned on an entry
+         */
+        public boolean seek(K key) {
+            return position(ceilingNode(key));
+        }
+
+        /**
+         * Positions the cursor on the smallest key
+         * @return whether the cursor is positioned on an entry (false if the tree is empty)
+         */
+        public boolean seekFirst() {
+            return position(firstNode());
+        }
+
+        /**
+         * Positions the cursor on the largest key
+         * @return whether the cursor is positioned on an entry (false if the tree is empty)
+         */
+        public boolean seekLast() {
+            return position(lastNode());
+        }
+
+        /**
+         * Moves to the next key
+         * @return whether the cursor is still positioned on an entry
+         */
+        public boolean next() {
+            checkPositioned();
+            curr = nextNode(curr);
+            return curr != null;
+        }
+
+        /**
+         * Moves to the previous key
+         * @return whether the cursor is still positioned on an entry
+         */
+        public boolean prev() {
+            checkPositioned();
+            curr = prevNode(curr);
+            return curr != null;
+        }
+
+        /**
+         * Whether the cursor is positioned on an entry
+         * @return true if key() and value() may be called
+         */
+        public boolean valid() {
+            return curr != null;
+        }
+
+        /**
+         * Key of the current entry
+         * @return current key
+         */
+        public K key() {
+            checkPositioned();
+            return curr.key;
+        }
+
+        /**
+         * Value of the current entry
+         * @return current value
+         */
+        public V value() {
+            checkPositioned();
+            return curr.value;
+        }
+
+        private boolean position(Node<K, V> node) {
+            curr = node;
+            expectedModCount = modCount;
+            return curr != null;
+        }
+
+        private void checkPositioned() {
+            if (modCount != expectedModCount) throw new ConcurrentModificationException();
+            if (curr == null) throw new NoSuchElementException("Cursor is not positioned on an entry");
+        }
+    }
+}
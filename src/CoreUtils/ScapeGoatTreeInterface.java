@@ -10,28 +10,33 @@ import java.util.Objects;
  * <p>
  * Note: you must read the instructions included in this file as not everything is the same as the website.
  *
- * @apiNote This class uses either .equals() or .compareTo() to check if two keys are equal. Any parameterized
+ * @apiNote This class uses either .equals() or {@link #compare} to check if two keys are equal. Any parameterized
  *   use of this class must ensure these functions are implemented in the key type for correct behavior.
  *
- * @param <K> data type for the keys the tree will store.  Must be comparable.
+ * @param <K> data type for the keys the tree will store.  Must be comparable, unless the implementation orders
+ *           them some other way (see {@link #compare}).
  * @param <V> data type for the values the tree will be storing
  */
-public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
+public abstract class ScapeGoatTreeInterface<K, V> {
     //alpha parameter
     protected static final double ALPHA_THRESHOLD = 0.57;
 
     /**
-     * Node object for our Scapegoat tree.  Holds comparable data and its left, right, and parent nodes.
+     * Node object for our Scapegoat tree.  Holds comparable data, its left, right, and parent nodes, and
+     *   the number of nodes in the subtree rooted at it.
      *
      * @param <E> type for the keys to hold
      * @param <A> type for the values to hold
      */
-    public static class Node<E extends Comparable<E>, A> {
+    public static class Node<E, A> {
         /*Note that while these variables are exposed publicly, the ScapeGoat tree never exposes
          * any of its nodes, protecting them from being changed by outside classes. */
         public E key;
         public A value;
         public Node<E, A> parent, left, right;
+        /*Number of nodes in the subtree rooted at this node (inclusive of self).  Kept up to date by the
+         * tree on every add, remove, and rebuild so the scapegoat search never has to recount subtrees. */
+        public int size = 1;
 
         //Default generated constructor
         public Node(E key, A value, Node<E, A> parent, Node<E, A> left, Node<E, A> right) {
@@ -176,6 +181,9 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
     /**
      * Returns a preorder traversal of the tree
      *
+     * @implNote iterative with an explicit stack, so deep (unbalanced) trees don't overflow the thread stack,
+     *   and every node goes straight into the one output list instead of concatenating sublists.
+     *
      * @param node root of tree to traverse
      * @return list storing the preorder traversal of the tree
      */
@@ -183,12 +191,18 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
         List<Node<K, V>> nodes = new ArrayList<>();
         if(node == null) return nodes;
 
-        nodes.add(node);
-        if(node.left != null){
-            nodes.addAll(preorder(node.left));
-        }
-        if(node.right != null){
-            nodes.addAll(preorder(node.right));
+        List<Node<K, V>> stack = new ArrayList<>();
+        stack.add(node);
+        while(!stack.isEmpty()){
+            Node<K, V> curr = stack.remove(stack.size() - 1);
+            nodes.add(curr);
+            //right first so that left is popped (visited) first
+            if(curr.right != null){
+                stack.add(curr.right);
+            }
+            if(curr.left != null){
+                stack.add(curr.left);
+            }
         }
         return nodes;
     }
@@ -212,16 +226,22 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
      * More efficient than recursing in inorder and combining lists on the way up because
      * 1. only one list, so much less copying of data -- an expensive operation
      * 2. list is passed as a parameter, so no creating new lists and "addAll" over and over (less overhead)
+     * 3. iterative with an explicit stack, so the depth of the tree is not limited by the thread stack size
      * @param nodes list to add to
      * @param node current node
      */
     private void inorderEfficient(List<Node<K, V>> nodes, Node<K, V> node){
-        if(node.left != null){
-            inorderEfficient(nodes, node.left);
-        }
-        nodes.add(node);
-        if(node.right != null){
-            inorderEfficient(nodes, node.right);
+        List<Node<K, V>> stack = new ArrayList<>();
+        Node<K, V> curr = node;
+        while(curr != null || !stack.isEmpty()){
+            //go as far left as possible, remembering the way back up
+            while(curr != null){
+                stack.add(curr);
+                curr = curr.left;
+            }
+            curr = stack.remove(stack.size() - 1);
+            nodes.add(curr);
+            curr = curr.right;
         }
     }
 
@@ -231,6 +251,19 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
      */
     public abstract int size();
 
+    /**
+     * Compares two keys.  Every key comparison the tree makes goes through here.  Uses the keys' own
+     *   <code>compareTo</code>; implementations that take a comparator override this.
+     * @param a first key
+     * @param b second key
+     * @return negative, zero, or positive as a is less than, equal to, or greater than b
+     * @throws ClassCastException if the keys are not comparable
+     */
+    @SuppressWarnings("unchecked")
+    protected int compare(K a, K b) {
+        return ((Comparable<? super K>) a).compareTo(b);
+    }
+
     /**
      * Brute force calculating the node's number of children (inclusive of self). Can be accelerated.
      * @param node subtree to count
@@ -239,7 +272,17 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
     protected int sizeOfSubtree(Node<K, V> node) {
         if (node == null)
             return 0;
-        return 1 + sizeOfSubtree(node.left) + sizeOfSubtree(node.right);
+        //iterative count so deep subtrees don't overflow the thread stack
+        int count = 0;
+        List<Node<K, V>> stack = new ArrayList<>();
+        stack.add(node);
+        while (!stack.isEmpty()) {
+            Node<K, V> curr = stack.remove(stack.size() - 1);
+            count++;
+            if (curr.left != null) stack.add(curr.left);
+            if (curr.right != null) stack.add(curr.right);
+        }
+        return count;
     }
 
     /**
@@ -253,7 +296,7 @@ public abstract class ScapeGoatTreeInterface<K extends Comparable<K>, V> {
         int result;
         Node<K, V> current = node;
         while(current != null){
-            result = node.key.compareTo(current.key);
+            result = compare(node.key, current.key);
             if(result < 0){
                 succ = current;
                 current = current.left;
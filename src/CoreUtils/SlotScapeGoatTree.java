@@ -0,0 +1,279 @@
+package CoreUtils;
+
+/**
+ * Index-based scapegoat tree behind {@link PrimitiveScapeGoatIntKey}, {@link PrimitiveScapeGoatLongKey} and
+ *   {@link OffHeapScapeGoatIntKey}.  Nodes are numbered slots; this class owns the balancing (scapegoat search,
+ *   in-place rebuild, successor removal), the in-order walk and the free list, and reaches the slots only
+ *   through the link and size accessors, so the same code runs over heap arrays
+ *   ({@link ArraySlotScapeGoatTree}) and off-heap records.  Subclasses store the keys and values, do the key
+ *   searches, and hand the slots they find to the methods here.
+ * <p>
+ * Balancing follows {@link ScapeGoatTree} exactly (same alpha, same insert and remove triggers, same
+ *   floor(size/2) rebuild shape), so they all produce identically shaped trees for the same operations.  Slots
+ *   freed by remove get size 0 and are reused by later adds through a free list threaded through
+ *   <code>left</code>.  Rebuilds only relink slots, they never move a node to another slot.
+ */
+abstract class SlotScapeGoatTree {
+    //"null" link
+    static final int NIL = -1;
+
+    //root slot
+    int root = NIL;
+    //number of slots ever handed out, and head of the free slot list
+    int slotsUsed = 0, freeHead = NIL;
+    //total number of nodes, and max node count (see ScapeGoatTree.maxNodeCount)
+    private int nodeCount = 0, maxNodeCount = 0;
+    //floor(log_(1/alpha)(nodeCount)), see ScapeGoatTree.moveDepthBound
+    private int depthBound = 0;
+    //remaining slots of the vine being consumed by buildFromVine (only meaningful during a rebuild)
+    private int vine = NIL;
+
+    //slot accessors, implemented by the storage
+
+    abstract int left(int slot);
+    abstract int right(int slot);
+    abstract int parent(int slot);
+    abstract int size(int slot);
+    abstract void setLeft(int slot, int x);
+    abstract void setRight(int slot, int x);
+    abstract void setParent(int slot, int x);
+    abstract void setSize(int slot, int x);
+
+    /**
+     * Makes sure slot exists in the storage, before it is handed out for the first time
+     * @param slot slot about to be used, always the next one after every slot handed out so far
+     */
+    abstract void reserve(int slot);
+
+    /**
+     * Copies the key and value in slot from into slot to
+     * @param from slot to copy from
+     * @param to slot to copy to
+     */
+    abstract void copyEntry(int from, int to);
+
+    /**
+     * Drops whatever slot holds that would keep memory alive once it is free (e.g. an object value)
+     * @param slot slot being freed
+     */
+    void releaseEntry(int slot) { }
+
+    /**
+     * Returns the number of nodes this tree contains.
+     * @return number of nodes in the tree
+     */
+    public int size() {
+        return nodeCount;
+    }
+
+    /**
+     * Empties the tree.  Keeps the allocated storage for reuse.
+     */
+    public void clear() {
+        root = NIL;
+        nodeCount = 0;
+        maxNodeCount = 0;
+        slotsUsed = 0;
+        freeHead = NIL;
+    }
+
+    /**
+     * First half of an insert: takes a slot for a key the caller has just failed to find, and links it in as a
+     *   leaf.  The caller then stores the key and value in the returned slot and calls {@link #rebalance}.
+     * @param par slot the search ended at, NIL for an empty tree
+     * @param goLeft whether the new slot is the left child of par
+     * @return the new slot
+     */
+    int attach(int par, boolean goLeft) {
+        int node = newSlot(par);
+        if (par == NIL) root = node;
+        else if (goLeft) setLeft(par, node);
+        else setRight(par, node);
+        for (int p = par; p != NIL; p = parent(p)) setSize(p, size(p) + 1);
+        nodeCount++;
+        return node;
+    }
+
+    /**
+     * Second half of an insert: rebuilds at the scapegoat if the new slot is too deep
+     * @param node slot returned by {@link #attach}
+     * @param depth number of edges from the root to node
+     */
+    void rebalance(int node, int depth) {
+        depthBound = ScapeGoatTree.moveDepthBound(ScapeGoatTree.DEFAULT_DEPTH_POWERS, depthBound, nodeCount);
+        if (depth + 1 > depthBound) {
+            int scapegoat = scapeGoatNode(node);
+            if (scapegoat != NIL) {
+                int scapegoatParent = parent(scapegoat);
+                if (scapegoatParent == NIL) {
+                    rebuildRoot();
+                } else {
+                    int rebuilt = rebuild(scapegoat);
+                    if (left(scapegoatParent) == scapegoat) setLeft(scapegoatParent, rebuilt);
+                    else setRight(scapegoatParent, rebuilt);
+                }
+            }
+        }
+        if (nodeCount > maxNodeCount) maxNodeCount = nodeCount;
+    }
+
+    /**
+     * Removes the node in slot target, and rebuilds the whole tree if it has shrunk enough
+     * @param target slot of the node to remove
+     */
+    void removeSlot(int target) {
+        if (left(target) != NIL && right(target) != NIL) {
+            //copy the successor (leftmost of the right subtree) up, then remove its slot instead
+            int succ = right(target);
+            while (left(succ) != NIL) succ = left(succ);
+            copyEntry(succ, target);
+            target = succ;
+        }
+        int child = left(target) != NIL ? left(target) : right(target);
+        int par = parent(target);
+        if (child != NIL) setParent(child, par);
+        if (par == NIL) root = child;
+        else if (left(par) == target) setLeft(par, child);
+        else setRight(par, child);
+        for (int p = par; p != NIL; p = parent(p)) setSize(p, size(p) - 1);
+        freeSlot(target);
+        nodeCount--;
+        if (nodeCount <= ScapeGoatTreeInterface.ALPHA_THRESHOLD * maxNodeCount) {
+            rebuildRoot();
+            maxNodeCount = nodeCount;
+        }
+    }
+
+    /**
+     * Rebuilds the whole tree.  Storage that wants to reorganize its slots (the slots are free to move here,
+     *   nothing outside the tree refers to them) can override this and call it afterwards.
+     */
+    void rebuildRoot() {
+        root = rebuild(root);
+    }
+
+    /**
+     * Returns the slot after the passed in slot in key order, following parent links
+     * @param slot slot to find the next slot for
+     * @return next slot, or NIL
+     */
+    int nextSlot(int slot) {
+        if (right(slot) != NIL) {
+            slot = right(slot);
+            while (left(slot) != NIL) slot = left(slot);
+            return slot;
+        }
+        int p = parent(slot);
+        while (p != NIL && slot == right(p)) {
+            slot = p;
+            p = parent(p);
+        }
+        return p;
+    }
+
+    /**
+     * Finds the first ancestor of a newly inserted slot that is not alpha-weight-balanced
+     * @param node newly inserted slot
+     * @return scapegoat slot, or NIL if every ancestor is balanced
+     */
+    private int scapeGoatNode(int node) {
+        for (int curr = node; parent(curr) != NIL; curr = parent(curr)) {
+            if (size(curr) > ScapeGoatTreeInterface.ALPHA_THRESHOLD * size(parent(curr))) {
+                return parent(curr);
+            }
+        }
+        return NIL;
+    }
+
+    /**
+     * Rebuilds the subtree rooted at node into a perfectly balanced subtree in place, the same way as
+     *   {@link ScapeGoatTree#rebuild}: flatten into a vine with right rotations, then relink.
+     * @param node root of subtree to rebuild
+     * @return new root of the subtree, already linked to the old root's parent
+     */
+    private int rebuild(int node) {
+        if (node == NIL) return NIL;
+        int par = parent(node), n = size(node);
+        vine = flatten(node);
+        int rebuilt = buildFromVine(n, par);
+        vine = NIL;
+        return rebuilt;
+    }
+
+    /**
+     * Flattens the subtree rooted at node into a vine linked through <code>right</code>
+     * @param node root of subtree to flatten
+     * @return first slot of the vine
+     */
+    private int flatten(int node) {
+        int head = NIL, tail = NIL, rest = node;
+        while (rest != NIL) {
+            int l = left(rest);
+            if (l != NIL) {
+                setLeft(rest, right(l));
+                setRight(l, rest);
+                rest = l;
+                if (tail != NIL) setRight(tail, l);
+            } else {
+                if (head == NIL) head = rest;
+                tail = rest;
+                rest = right(rest);
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Builds a balanced subtree out of the next n slots of the vine
+     * @param n number of vine slots to consume
+     * @param par parent of the subtree being built
+     * @return root slot of the subtree
+     */
+    private int buildFromVine(int n, int par) {
+        if (n == 0) return NIL;
+        int leftSize = n / 2;
+        int l = buildFromVine(leftSize, NIL);
+        int mid = vine;
+        vine = right(vine);
+        setLeft(mid, l);
+        if (l != NIL) setParent(l, mid);
+        setRight(mid, buildFromVine(n - leftSize - 1, mid));
+        setParent(mid, par);
+        setSize(mid, n);
+        return mid;
+    }
+
+    /**
+     * Takes a slot off the free list (or a fresh one, reserving it in the storage) and fills in its links
+     * @param par parent slot
+     * @return the slot
+     * @throws IllegalStateException if every int slot number is in use
+     */
+    private int newSlot(int par) throws IllegalStateException {
+        int slot;
+        if (freeHead != NIL) {
+            slot = freeHead;
+            freeHead = left(slot);
+        } else {
+            if (slotsUsed == Integer.MAX_VALUE) throw new IllegalStateException("Tree is full");
+            reserve(slotsUsed);
+            slot = slotsUsed++;
+        }
+        setLeft(slot, NIL);
+        setRight(slot, NIL);
+        setParent(slot, par);
+        setSize(slot, 1);
+        return slot;
+    }
+
+    /**
+     * Returns a slot to the free list.  Its size becomes 0, which marks it as free.
+     * @param slot slot to free
+     */
+    private void freeSlot(int slot) {
+        releaseEntry(slot);
+        setSize(slot, 0);
+        setLeft(slot, freeHead);
+        freeHead = slot;
+    }
+}
@@ -0,0 +1,101 @@
+package CoreUtils.UsefulContainers;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint set (union-find) over the ints [0, n), with union by size and path halving.  Every operation is
+ *   effectively O(1) amortized (inverse Ackermann).
+ */
+public class DisjointSet {
+    private final int[] parent, size;
+
+    /**
+     * Initializes a disjoint set of size n, every element in a set of its own
+     *
+     * @param n size of disjoint set
+     * @throws IllegalArgumentException if passed an invalid size (&lt;0)
+     */
+    public DisjointSet(int n) throws IllegalArgumentException {
+        if (n < 0) throw new IllegalArgumentException("Error: attempt to initialize DisjointSet with n < 0, n=" + n);
+        parent = new int[n];
+        for (int i = 0; i < n; i++) parent[i] = i;
+        size = new int[n];
+        Arrays.fill(size, 1);
+    }
+
+    /**
+     * Finds the root of x.  Path halving: every other node on the way up is pointed at its grandparent, which
+     *   flattens the path about as well as full path compression, in one pass and without recursion.
+     *
+     * @param x node to find the root of
+     * @return root of x
+     * @throws IndexOutOfBoundsException if x is out of bounds
+     */
+    public int find(int x) throws IndexOutOfBoundsException {
+        checkBounds(x);
+        int[] p = parent;
+        while (p[x] != x) {
+            p[x] = p[p[x]];
+            x = p[x];
+        }
+        return x;
+    }
+
+    /**
+     * Unions the two sets containing x and y.  Joins the smaller size to the larger size,
+     *   or if they are the same size, joins x to y (makes y the parent of x, etc.).  Does
+     *   not change information about any node except possibly the roots of each set.
+     *
+     * @param x node in set 1
+     * @param y node in set 2
+     * @return <code>true</code> if x and y were in different sets, <code>false</code> if nothing changed
+     * @throws IndexOutOfBoundsException if x or y are out of bounds
+     */
+    public boolean union(int x, int y) throws IndexOutOfBoundsException {
+        int smaller = find(x), bigger = find(y);
+        //already in same set
+        if (smaller == bigger) return false;
+
+        //determine bigger set
+        if (size[bigger] < size[smaller]) {
+            int temp = bigger;
+            bigger = smaller;
+            smaller = temp;
+        }
+        parent[smaller] = bigger;
+        size[bigger] += size[smaller];
+        return true;
+    }
+
+    /**
+     * Returns the size of the set that node x is contained in
+     *
+     * @param x node to identify the desired set
+     * @return size of the set containing x
+     * @throws IndexOutOfBoundsException if x is out of bounds
+     */
+    public int getSetSize(int x) throws IndexOutOfBoundsException {
+        return size[find(x)];
+    }
+
+    /**
+     * Returns the size of the disjoint set (total number of elements)
+     *
+     * @return size of disjoint set
+     */
+    public int getDSSize() {
+        return parent.length;
+    }
+
+    /**
+     * Checks if given index is out of bounds of the disjoint set and throws if so
+     *
+     * @param x index to check
+     * @throws IndexOutOfBoundsException if x is out of bounds
+     */
+    private void checkBounds(int x) throws IndexOutOfBoundsException {
+        if (x < 0 || parent.length <= x)
+            throw new IndexOutOfBoundsException("Error: index " + x +
+                    " out of bounds (max idx = " + (parent.length - 1) + ")");
+    }
+}
@@ -0,0 +1,137 @@
+package CoreUtilsTest;
+
+import CoreUtils.ConcurrentScapeGoatTree;
+import CoreUtils.ScapeGoatMetrics;
+import CoreUtils.ScapeGoatTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ConcurrentScapeGoatTree class.
+ */
+public class ConcurrentScapeGoatTreeTest {
+    /**
+     * Single threaded sanity check of the wrapper
+     */
+    @Test
+    void basicTest(){
+        ConcurrentScapeGoatTree<Integer, String> tree = new ConcurrentScapeGoatTree<>();
+        assertNull(tree.get(1));
+        assertNull(tree.get(null));
+        tree.add(1, "a");
+        tree.add(2, "b");
+        assertEquals("a", tree.get(1));
+        assertTrue(tree.containsKey(2));
+        assertEquals(2, tree.size());
+        Integer first = tree.read(t -> t.firstKey());
+        assertEquals(1, first);
+        tree.write(t -> t.removeRange(0, 1));
+        assertFalse(tree.containsKey(1));
+        tree.remove(2);
+        assertEquals(0, tree.size());
+        tree.add(3, "c");
+        tree.clear();
+        assertNull(tree.get(3));
+    }
+
+    /**
+     * Readers running against a writer that keeps adding and removing (forcing rebuilds) must only ever see
+     *   a key's own value or nothing, and must always see the keys the writer never touches.
+     */
+    @Test
+    void readersDuringWrites() throws InterruptedException {
+        final int STABLE = 1000, CHURN = 20000;
+        ConcurrentScapeGoatTree<Integer, Integer> tree = new ConcurrentScapeGoatTree<>();
+        //even keys are never removed
+        for(int i=0; i<STABLE; i++){
+            tree.add(2 * i, 2 * i);
+        }
+
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            for(int round=0; round<5; round++){
+                for(int i=0; i<CHURN; i++) tree.add(2 * i + 1, 2 * i + 1);
+                for(int i=0; i<CHURN; i++) tree.remove(2 * i + 1);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for(int r=0; r<3; r++){
+            readers.add(new Thread(() -> {
+                for(int iter=0; writer.isAlive() || iter < 100000; iter++){
+                    int k = iter % (2 * CHURN);
+                    Integer v = tree.get(k);
+                    if(k % 2 == 0 && k < 2 * STABLE && (v == null || v != k)){
+                        failure.set("Lost stable key " + k + ", got " + v);
+                    }
+                    if(v != null && v != k){
+                        failure.set("Key " + k + " had value " + v);
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for(var t : readers){
+            t.join();
+        }
+        assertNull(failure.get(), failure.get());
+        assertEquals(STABLE, tree.size());
+    }
+
+    /**
+     * Lookups counted by metrics from many readers sharing the read lock are not lost
+     */
+    @Test
+    void concurrentMetricsTest() throws InterruptedException {
+        final int READERS = 4, LOOKUPS = 50000;
+        ConcurrentScapeGoatTree<Integer, Integer> tree = new ConcurrentScapeGoatTree<>();
+        for(int i=0; i<1000; i++){
+            tree.add(i, i);
+        }
+        tree.write(t -> t.setMetricsEnabled(true));
+        List<Thread> readers = new ArrayList<>();
+        for(int r=0; r<READERS; r++){
+            readers.add(new Thread(() -> {
+                for(int i=0; i<LOOKUPS; i++){
+                    final int k = i % 1000;
+                    tree.read(t -> t.get(k));
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+        for(var t : readers){
+            t.join();
+        }
+        ScapeGoatMetrics m = tree.read(ScapeGoatTree::getMetrics);
+        assertEquals((long) READERS * LOOKUPS, m.lookups());
+        assertTrue(m.lookupComparisons() >= m.lookups());
+    }
+
+    /**
+     * With alpha close to 1 the tree gets hundreds of levels deep; lookups must still succeed optimistically
+     *   (only the locked fallback goes through the wrapped tree, so it is the only path metrics count)
+     */
+    @Test
+    void deepTreeOptimisticTest(){
+        ScapeGoatTree<Integer, Integer> inner = new ScapeGoatTree<>();
+        inner.setAlpha(0.99);
+        ConcurrentScapeGoatTree<Integer, Integer> tree = new ConcurrentScapeGoatTree<>(inner);
+        for(int i=0; i<20000; i++){
+            tree.add(i, i);
+        }
+        tree.write(t -> t.setMetricsEnabled(true));
+        int height = tree.read(t -> t.getMetrics().height());
+        assertTrue(height > 256, "height " + height);
+        for(int i=0; i<20000; i+=7){
+            assertEquals(i, tree.get(i));
+        }
+        assertNull(tree.get(-1));
+        assertEquals(0L, (long) tree.read(t -> t.getMetrics().lookups()));
+    }
+}
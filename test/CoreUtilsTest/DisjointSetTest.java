@@ -0,0 +1,51 @@
+package CoreUtilsTest;
+
+import CoreUtils.UsefulContainers.DisjointSet;
+import CoreUtilsTest.UsefulObjects.CorrectDisjointSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the DisjointSet class against CorrectDisjointSet, which follows the same contract.
+ */
+public class DisjointSetTest {
+    /**
+     * Random unions give the same roots and set sizes, including the tie rule (x joins y)
+     */
+    @Test
+    void randomAgainstCorrect(){
+        Random rand = new Random(25);
+        int n = 5000;
+        DisjointSet ds = new DisjointSet(n);
+        CorrectDisjointSet expected = new CorrectDisjointSet(n);
+        assertEquals(n, ds.getDSSize());
+        for(int i=0; i<4000; i++){
+            int x = rand.nextInt(n), y = rand.nextInt(n);
+            boolean merged = expected.find(x) != expected.find(y);
+            expected.union(x, y);
+            assertEquals(merged, ds.union(x, y));
+            int z = rand.nextInt(n);
+            assertEquals(expected.find(z), ds.find(z));
+            assertEquals(expected.getSetSize(z), ds.getSetSize(z));
+        }
+        for(int i=0; i<n; i++){
+            assertEquals(expected.find(i), ds.find(i));
+        }
+    }
+
+    /**
+     * Bounds and size checks
+     */
+    @Test
+    void errorTest(){
+        assertThrows(IllegalArgumentException.class, () -> new DisjointSet(-1));
+        DisjointSet ds = new DisjointSet(3);
+        assertThrows(IndexOutOfBoundsException.class, () -> ds.find(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> ds.union(0, -1));
+        assertThrows(IndexOutOfBoundsException.class, () -> ds.getSetSize(5));
+        assertEquals(0, new DisjointSet(0).getDSSize());
+    }
+}
@@ -0,0 +1,166 @@
+package CoreUtilsTest;
+
+import CoreUtils.BinaryCodec;
+import CoreUtils.LoggedScapeGoatTree;
+import CoreUtils.LoggedScapeGoatTree.SyncPolicy;
+import CoreUtils.ScapeGoatIntKey;
+import CoreUtils.ScapeGoatIntKeyFile;
+import CoreUtils.ScapeGoatTree;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the LoggedScapeGoatTree class.
+ */
+public class LoggedScapeGoatTreeTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * Random operations survive a close and a recovery into an empty tree
+     */
+    @Test
+    void replayTest() throws IOException {
+        Path logPath = dir.resolve("tree.log");
+        Random rand = new Random(14);
+        ScapeGoatIntKey<String> expected = new ScapeGoatIntKey<>();
+        try (LoggedScapeGoatTree<Integer, String> logged = LoggedScapeGoatTree.recover(new ScapeGoatIntKey<>(),
+                logPath, BinaryCodec.INT, BinaryCodec.UTF8, SyncPolicy.NEVER, 64)) {
+            for(int i=0; i<10000; i++){
+                int k = rand.nextInt(1000);
+                if(i == 5000){
+                    logged.clear();
+                    expected.clear();
+                } else if(rand.nextInt(3) == 0){
+                    logged.remove(k);
+                    expected.remove(k);
+                } else {
+                    String v = k % 10 == 0 ? null : "v" + i;
+                    logged.add(k, v);
+                    expected.add(k, v);
+                }
+            }
+            assertEquals(expected.size(), logged.size());
+        }
+
+        ScapeGoatIntKey<String> recovered = new ScapeGoatIntKey<>();
+        try (LoggedScapeGoatTree<Integer, String> logged = LoggedScapeGoatTree.recover(recovered,
+                logPath, BinaryCodec.INT, BinaryCodec.UTF8, SyncPolicy.ALWAYS, 1)) {
+            assertEquals(expected.size(), logged.size());
+            assertEquals(expected.getRange(0, 1000), recovered.getRange(0, 1000));
+            List<String> viaRead = logged.read(t -> ((ScapeGoatIntKey<String>) t).getRange(0, 1000));
+            assertEquals(expected.getRange(0, 1000), viaRead);
+        }
+    }
+
+    /**
+     * A record cut short by a crash is dropped (and truncated away), everything before it is kept
+     */
+    @Test
+    void tornTailTest() throws IOException {
+        Path logPath = dir.resolve("torn.log");
+        try (LoggedScapeGoatTree<Integer, Integer> logged = LoggedScapeGoatTree.recover(new ScapeGoatTree<>(),
+                logPath, BinaryCodec.INT, BinaryCodec.INT, SyncPolicy.ALWAYS, 1)) {
+            for(int i=0; i<10; i++){
+                logged.add(i, i);
+            }
+        }
+        byte[] bytes = Files.readAllBytes(logPath);
+        Files.write(logPath, Arrays.copyOf(bytes, bytes.length - 3));
+
+        ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>();
+        try (LoggedScapeGoatTree<Integer, Integer> logged = LoggedScapeGoatTree.recover(tree,
+                logPath, BinaryCodec.INT, BinaryCodec.INT, SyncPolicy.ALWAYS, 1)) {
+            assertEquals(9, logged.size());
+            assertNull(logged.get(9));
+            //appending after a torn tail must produce a readable log
+            logged.add(100, 100);
+        }
+        tree = new ScapeGoatTree<>();
+        LoggedScapeGoatTree.recover(tree, logPath, BinaryCodec.INT, BinaryCodec.INT, SyncPolicy.ALWAYS, 1).close();
+        assertEquals(10, tree.size());
+        assertEquals(100, tree.get(100));
+
+        //corrupt a byte in the middle of the first record: nothing survives
+        bytes = Files.readAllBytes(logPath);
+        bytes[10] ^= 1;
+        Files.write(logPath, bytes);
+        tree = new ScapeGoatTree<>();
+        LoggedScapeGoatTree.recover(tree, logPath, BinaryCodec.INT, BinaryCodec.INT, SyncPolicy.ALWAYS, 1).close();
+        assertEquals(0, tree.size());
+        assertThrows(IllegalArgumentException.class, () -> LoggedScapeGoatTree.recover(new ScapeGoatTree<>(),
+                logPath, BinaryCodec.INT, BinaryCodec.INT, SyncPolicy.ALWAYS, 0));
+    }
+
+    /**
+     * Snapshot + truncate, then more operations: recovery replays the log on top of the snapshot
+     */
+    @Test
+    void checkpointTest() throws IOException {
+        Path logPath = dir.resolve("cp.log"), snapshot = dir.resolve("cp.sgk");
+        try (LoggedScapeGoatTree<Integer, Long> logged = LoggedScapeGoatTree.recover(new ScapeGoatIntKey<>(),
+                logPath, BinaryCodec.INT, BinaryCodec.LONG, SyncPolicy.ALWAYS, 16)) {
+            for(int i=0; i<1000; i++){
+                logged.add(i, (long) i);
+            }
+            //a failed snapshot leaves the log alone
+            assertThrows(IOException.class, () -> logged.checkpoint(t -> { throw new IOException("disk full"); }));
+            assertTrue(Files.size(logPath) > 0);
+            logged.checkpoint(t -> ScapeGoatIntKeyFile.write((ScapeGoatIntKey<Long>) t, snapshot, BinaryCodec.LONG));
+            assertEquals(0, Files.size(logPath));
+            for(int i=0; i<500; i++){
+                logged.remove(i);
+            }
+            logged.add(5000, 5000L);
+        }
+
+        ScapeGoatIntKey<Long> tree = ScapeGoatIntKeyFile.load(snapshot, BinaryCodec.LONG);
+        assertEquals(1000, tree.size());
+        LoggedScapeGoatTree.recover(tree, logPath, BinaryCodec.INT, BinaryCodec.LONG, SyncPolicy.ALWAYS, 16).close();
+        assertEquals(501, tree.size());
+        assertNull(tree.get(0));
+        assertEquals(999L, tree.get(999));
+        assertEquals(5000L, tree.get(5000));
+    }
+
+    /**
+     * A codec that throws leaves the tree untouched, so the tree still matches its log
+     */
+    @Test
+    void failingCodecTest() throws IOException {
+        Path logPath = dir.resolve("codec.log");
+        BinaryCodec<String> picky = new BinaryCodec<>() {
+            @Override
+            public byte[] encode(String value) {
+                if (value.isEmpty()) throw new IllegalArgumentException("empty");
+                return BinaryCodec.UTF8.encode(value);
+            }
+
+            @Override
+            public String decode(ByteBuffer bytes) { return BinaryCodec.UTF8.decode(bytes); }
+        };
+        try (LoggedScapeGoatTree<String, String> logged = LoggedScapeGoatTree.recover(new ScapeGoatTree<>(),
+                logPath, picky, picky, SyncPolicy.ALWAYS, 1)) {
+            logged.add("a", "1");
+            assertThrows(IllegalArgumentException.class, () -> logged.add("b", ""));
+            assertThrows(IllegalArgumentException.class, () -> logged.add("", "2"));
+            assertThrows(IllegalArgumentException.class, () -> logged.remove(""));
+            assertEquals(1, logged.size());
+            assertNull(logged.get("b"));
+        }
+        ScapeGoatTree<String, String> tree = new ScapeGoatTree<>();
+        LoggedScapeGoatTree.recover(tree, logPath, picky, picky, SyncPolicy.ALWAYS, 1).close();
+        assertEquals(1, tree.size());
+        assertEquals("1", tree.get("a"));
+    }
+}
@@ -0,0 +1,183 @@
+package CoreUtilsTest;
+
+import CoreUtils.MST;
+import CoreUtils.UsefulContainers.Edge;
+import CoreUtils.UsefulContainers.iPair;
+import CoreUtilsTest.UsefulObjects.CorrectDisjointSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the MST class against a plain reference Kruskal.
+ */
+public class MSTTest {
+    /**
+     * Reference MST weight: sort Edge objects, then union-find
+     * @param edges edge list (will be sorted)
+     * @param n number of vertices
+     * @return total weight of an MST
+     */
+    private static double referenceWeight(List<Edge> edges, int n){
+        Collections.sort(edges);
+        CorrectDisjointSet ds = new CorrectDisjointSet(n);
+        double total = 0;
+        for(Edge e : edges){
+            if(ds.find(e.a) != ds.find(e.b)){
+                ds.union(e.a, e.b);
+                total += e.w;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Checks that mst is a spanning tree of n vertices and returns its weight
+     * @param mst edges returned by MST
+     * @param weights weight of each edge
+     * @param n number of vertices
+     * @return total weight of mst
+     */
+    private static double checkSpanningTree(List<iPair> mst, double[][] weights, int n){
+        assertEquals(Math.max(n - 1, 0), mst.size());
+        CorrectDisjointSet ds = new CorrectDisjointSet(n);
+        double total = 0;
+        for(iPair e : mst){
+            assertNotEquals(ds.find(e.a), ds.find(e.b), "Cycle through " + e);
+            ds.union(e.a, e.b);
+            total += weights[e.a][e.b];
+        }
+        if(n > 0) assertEquals(n, ds.getSetSize(0));
+        return total;
+    }
+
+    /**
+     * Random symmetric complete graph
+     */
+    private static double[][] randomMatrix(int n, Random rand){
+        double[][] weights = new double[n][n];
+        for(int i=0; i<n; i++){
+            for(int j=0; j<i; j++){
+                //few distinct weights, so there are ties
+                weights[i][j] = weights[j][i] = rand.nextInt(50) + 1;
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * denseMST, both overloads, against the reference on random complete graphs
+     */
+    @Test
+    void denseRandomTest(){
+        Random rand = new Random(24);
+        for(int n : new int[]{0, 1, 2, 3, 10, 57, 300}){
+            double[][] weights = randomMatrix(n, rand);
+            List<Edge> edges = new ArrayList<>();
+            double[] flat = new double[n * n];
+            for(int i=0; i<n; i++){
+                for(int j=0; j<n; j++){
+                    flat[i * n + j] = weights[i][j];
+                    if(j < i) edges.add(new Edge(i, j, weights[i][j]));
+                }
+            }
+            double expected = referenceWeight(edges, n);
+            assertEquals(expected, checkSpanningTree(MST.denseMST(weights), weights, n), 1e-9);
+            assertEquals(expected, checkSpanningTree(MST.denseMST(flat, n), weights, n), 1e-9);
+        }
+    }
+
+    /**
+     * Bad matrices are rejected, wherever the problem is
+     */
+    @Test
+    void denseValidationTest(){
+        double[][] ragged = randomMatrix(5, new Random(1));
+        ragged[3] = new double[4];
+        assertThrows(IllegalArgumentException.class, () -> MST.denseMST(ragged));
+        double[][] negative = randomMatrix(5, new Random(2));
+        negative[4][2] = -1;
+        assertThrows(IllegalArgumentException.class, () -> MST.denseMST(negative));
+        assertThrows(IllegalArgumentException.class, () -> MST.denseMST(new double[8], 3));
+        assertThrows(IllegalArgumentException.class, () -> MST.denseMST(new double[]{0, 1, 1, -0.5}, 2));
+    }
+
+    /**
+     * sparseMST against the reference on random connected sparse graphs, with ties, zero and -0.0 weights, and
+     *   parallel edges
+     */
+    @Test
+    void sparseRandomTest(){
+        Random rand = new Random(25);
+        for(int n : new int[]{0, 1, 2, 10, 500, 20000}){
+            List<Edge> edges = new ArrayList<>();
+            //random spanning path so the graph is connected, then random extra edges
+            for(int i=1; i<n; i++){
+                edges.add(new Edge(rand.nextInt(i), i, rand.nextInt(1000) / 8.0));
+            }
+            for(int i=0; i<4 * n; i++){
+                int a = rand.nextInt(n), b = rand.nextInt(n);
+                double w = switch(rand.nextInt(10)){
+                    case 0 -> 0.0;
+                    case 1 -> -0.0;
+                    case 2 -> rand.nextDouble() * 1e12;
+                    default -> rand.nextInt(1000) / 8.0;
+                };
+                edges.add(new Edge(a, b, w));
+            }
+            List<iPair> mst = MST.sparseMST(edges, n);
+
+            //weight of each vertex pair: the cheapest of its parallel edges
+            Map<Long, Double> pairWeight = new HashMap<>();
+            for(Edge e : edges){
+                pairWeight.merge((long) Math.min(e.a, e.b) * n + Math.max(e.a, e.b), e.w, Math::min);
+            }
+            assertEquals(Math.max(n - 1, 0), mst.size());
+            CorrectDisjointSet ds = new CorrectDisjointSet(n);
+            double total = 0;
+            for(iPair e : mst){
+                assertNotEquals(ds.find(e.a), ds.find(e.b), "Cycle through " + e);
+                ds.union(e.a, e.b);
+                total += pairWeight.get((long) Math.min(e.a, e.b) * n + Math.max(e.a, e.b));
+            }
+            assertEquals(referenceWeight(edges, n), total, 1e-3);
+        }
+    }
+
+    /**
+     * sparseMST and denseMST agree on a complete graph
+     */
+    @Test
+    void sparseMatchesDenseTest(){
+        Random rand = new Random(250);
+        int n = 200;
+        double[][] weights = new double[n][n];
+        List<Edge> edges = new ArrayList<>();
+        for(int i=0; i<n; i++){
+            for(int j=0; j<i; j++){
+                weights[i][j] = weights[j][i] = rand.nextDouble();
+                edges.add(new Edge(i, j, weights[i][j]));
+            }
+        }
+        assertEquals(checkSpanningTree(MST.denseMST(weights), weights, n),
+                checkSpanningTree(MST.sparseMST(edges, n), weights, n), 1e-9);
+    }
+
+    /**
+     * Bad edges are rejected
+     */
+    @Test
+    void sparseValidationTest(){
+        assertThrows(IllegalArgumentException.class,
+                () -> MST.sparseMST(List.of(new Edge(0, 1, 1), new Edge(1, 2, -1)), 3));
+        assertThrows(IllegalArgumentException.class, () -> MST.sparseMST(List.of(new Edge(0, 3, 1)), 3));
+        assertThrows(IllegalArgumentException.class, () -> MST.sparseMST(List.of(new Edge(-1, 0, 1)), 3));
+    }
+}
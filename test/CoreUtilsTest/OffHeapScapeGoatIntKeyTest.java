@@ -0,0 +1,127 @@
+package CoreUtilsTest;
+
+import CoreUtils.OffHeapScapeGoatIntKey;
+import CoreUtils.ScapeGoatIntKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the OffHeapScapeGoatIntKey class against ScapeGoatIntKey.
+ */
+public class OffHeapScapeGoatIntKeyTest {
+    /**
+     * Values of a ScapeGoatIntKey range as a long[], to compare with the off-heap tree
+     */
+    private static long[] toArray(List<Long> values){
+        long[] res = new long[values.size()];
+        for(int i=0; i<res.length; i++){
+            res[i] = values.get(i);
+        }
+        return res;
+    }
+
+    /**
+     * Basic add/get/remove/getRange
+     */
+    @Test
+    void basicTest(){
+        OffHeapScapeGoatIntKey tree = new OffHeapScapeGoatIntKey();
+        assertEquals(-1, tree.get(1, -1));
+        assertEquals(0, tree.getRange(-100, 100).length);
+        assertEquals(0, tree.allocatedBytes());
+        tree.remove(1);
+
+        tree.add(10, 100);
+        tree.add(20, Long.MAX_VALUE);
+        tree.add(30, -300);
+        tree.add(20, 0);
+        assertEquals(3, tree.size());
+        assertEquals(Long.MAX_VALUE, tree.get(20, -1));
+        assertArrayEquals(new long[]{Long.MAX_VALUE, -300}, tree.getRange(15, 30));
+        assertEquals(0, tree.getRange(30, 15).length);
+        assertTrue(tree.containsKey(10));
+        assertFalse(tree.containsKey(11));
+
+        tree.remove(20);
+        assertEquals(-1, tree.get(20, -1));
+        assertEquals(2, tree.size());
+        tree.clear();
+        assertEquals(0, tree.size());
+        assertFalse(tree.containsKey(10));
+        tree.add(5, 5);
+        assertEquals(5, tree.get(5, -1));
+    }
+
+    /**
+     * Random operations compared against ScapeGoatIntKey, including slot reuse after removes
+     */
+    @Test
+    void randomAgainstScapeGoatIntKey(){
+        Random rand = new Random(21);
+        OffHeapScapeGoatIntKey tree = new OffHeapScapeGoatIntKey();
+        ScapeGoatIntKey<Long> expected = new ScapeGoatIntKey<>();
+        for(int round=0; round<5; round++){
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<50000; i++){
+                keys.add(rand.nextInt(200000) - 100000);
+            }
+            for(var k : keys){
+                tree.add(k, 7L * k);
+                expected.add(k, 7L * k);
+            }
+            Collections.shuffle(keys, rand);
+            for(int i=0; i<keys.size() / 2; i++){
+                tree.remove(keys.get(i));
+                expected.remove(keys.get(i));
+            }
+            assertEquals(expected.size(), tree.size());
+            for(int i=0; i<1000; i++){
+                int k = rand.nextInt(200000) - 100000;
+                Long value = expected.get(k);
+                assertEquals(value == null ? -1 : value, tree.get(k, -1));
+                assertArrayEquals(toArray(expected.getRange(k, k + 500)), tree.getRange(k, k + 500));
+            }
+        }
+    }
+
+    /**
+     * Shrinking the tree compacts the records and gives chunks back
+     */
+    @Test
+    void compactionTest(){
+        OffHeapScapeGoatIntKey tree = new OffHeapScapeGoatIntKey();
+        int n = 3_000_000;
+        for(int i=0; i<n; i++){
+            tree.add(i, i);
+        }
+        long full = tree.allocatedBytes();
+        assertTrue(full >= 3L * (1 << 20) * 32);
+
+        //remove from the middle so the survivors sit in high slots too
+        for(int i=1000; i<n - 1000; i++){
+            tree.remove(i);
+        }
+        assertEquals(2000, tree.size());
+        assertTrue(tree.allocatedBytes() < full, tree.allocatedBytes() + " " + full);
+        for(int i=0; i<n; i+=997){
+            boolean live = i < 1000 || i >= n - 1000;
+            assertEquals(live ? i : -1, tree.get(i, -1));
+        }
+        long[] range = tree.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(2000, range.length);
+        assertEquals(n - 1, range[1999]);
+
+        //slots are reused after compaction
+        for(int i=1000; i<5000; i++){
+            tree.add(i, -i);
+        }
+        assertEquals(6000, tree.size());
+        assertEquals(-4999, tree.get(4999, 0));
+    }
+}
@@ -0,0 +1,107 @@
+package CoreUtilsTest;
+
+import CoreUtils.PersistentScapeGoatTree;
+import CoreUtils.ScapeGoatIntKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the PersistentScapeGoatTree class.
+ */
+public class PersistentScapeGoatTreeTest {
+    /**
+     * Snapshots must not see anything that happens after they were taken
+     */
+    @Test
+    void snapshotIsolationTest(){
+        PersistentScapeGoatTree<Integer, Integer> tree = new PersistentScapeGoatTree<>();
+        for(int i=0; i<1000; i++){
+            tree.add(i, i);
+        }
+        PersistentScapeGoatTree.Snapshot<Integer, Integer> before = tree.snapshot();
+        for(int i=0; i<1000; i+=2){
+            tree.remove(i);
+        }
+        for(int i=1000; i<3000; i++){
+            tree.add(i, -i);
+        }
+        assertEquals(1000, before.size());
+        assertEquals(500 + 2000, tree.size());
+        for(int i=0; i<1000; i++){
+            assertEquals(i, before.get(i));
+            assertEquals(i % 2 == 0 ? null : (Integer) i, tree.get(i));
+        }
+        assertNull(before.get(1500));
+        assertEquals(-1500, tree.get(1500));
+        assertEquals(List.of(10, 11, 12), before.getRange(10, 12));
+        assertEquals(List.of(11), tree.getRange(10, 12));
+
+        int expected = 0;
+        for(Map.Entry<Integer, Integer> e : before){
+            assertEquals(expected, e.getKey());
+            assertEquals(expected, e.getValue());
+            expected++;
+        }
+        assertEquals(1000, expected);
+
+        tree.clear();
+        assertEquals(0, tree.size());
+        assertEquals(1000, before.size());
+        assertFalse(tree.snapshot().iterator().hasNext());
+    }
+
+    /**
+     * Random adds and removes compared against ScapeGoatIntKey, checking every snapshot taken along the way
+     */
+    @Test
+    void randomAgainstScapeGoatIntKey(){
+        Random rand = new Random(12);
+        PersistentScapeGoatTree<Integer, Integer> tree = new PersistentScapeGoatTree<>();
+        ScapeGoatIntKey<Integer> reference = new ScapeGoatIntKey<>();
+        List<PersistentScapeGoatTree.Snapshot<Integer, Integer>> snapshots = new ArrayList<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for(int i=0; i<20000; i++){
+            int k = rand.nextInt(2000);
+            if(rand.nextInt(3) == 0){
+                tree.remove(k);
+                reference.remove(k);
+            } else {
+                tree.add(k, k * 3);
+                reference.add(k, k * 3);
+            }
+            if(i % 1000 == 0){
+                snapshots.add(tree.snapshot());
+                expected.add(reference.getRange(0, 2000));
+            }
+        }
+        assertEquals(reference.size(), tree.size());
+        assertEquals(reference.getRange(500, 1500), tree.getRange(500, 1500));
+        for(int i=0; i<snapshots.size(); i++){
+            assertEquals(expected.get(i), snapshots.get(i).getRange(0, 2000));
+            assertEquals(expected.get(i).size(), snapshots.get(i).size());
+        }
+    }
+
+    /**
+     * Sorted inserts force many rebuilds; the tree must stay correct and lookups must stay shallow
+     */
+    @Test
+    void sortedInsertTest(){
+        PersistentScapeGoatTree<Integer, Integer> tree = new PersistentScapeGoatTree<>();
+        for(int i=0; i<100000; i++){
+            tree.add(i, i);
+        }
+        tree.add(5, 0); // duplicate ignored
+        tree.add(null, 0);
+        assertEquals(100000, tree.size());
+        assertEquals(5, tree.get(5));
+        assertEquals(99999, tree.get(99999));
+        assertEquals(List.of(), tree.getRange(200000, 300000));
+    }
+}
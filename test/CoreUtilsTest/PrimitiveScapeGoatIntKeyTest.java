@@ -0,0 +1,80 @@
+package CoreUtilsTest;
+
+import CoreUtils.PrimitiveScapeGoatIntKey;
+import CoreUtils.ScapeGoatIntKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the PrimitiveScapeGoatIntKey class against ScapeGoatIntKey, which it should behave identically to.
+ */
+public class PrimitiveScapeGoatIntKeyTest {
+    /**
+     * Basic add/get/remove/getRange
+     */
+    @Test
+    void basicTest(){
+        PrimitiveScapeGoatIntKey<String> tree = new PrimitiveScapeGoatIntKey<>(0);
+        assertNull(tree.get(1));
+        assertEquals(0, tree.getRange(-100, 100).size());
+        tree.remove(1);
+
+        tree.add(10, "A");
+        tree.add(20, "B");
+        tree.add(30, "C");
+        tree.add(20, "not B");
+        assertEquals(3, tree.size());
+        assertEquals("B", tree.get(20));
+        TestUtils.compareArraysWithEqual(List.of("B", "C"), tree.getRange(15, 30), "Primitive getRange");
+        assertEquals(0, tree.getRange(30, 15).size());
+
+        tree.add(40, null);
+        assertTrue(tree.containsKey(40));
+        assertFalse(tree.containsKey(41));
+
+        tree.remove(20);
+        assertNull(tree.get(20));
+        assertEquals(3, tree.size());
+        tree.clear();
+        assertEquals(0, tree.size());
+        assertNull(tree.get(10));
+    }
+
+    /**
+     * Random operations compared against ScapeGoatIntKey, including slot reuse after removes
+     */
+    @Test
+    void randomAgainstScapeGoatIntKey(){
+        Random rand = new Random(251);
+        PrimitiveScapeGoatIntKey<Integer> tree = new PrimitiveScapeGoatIntKey<>();
+        ScapeGoatIntKey<Integer> expected = new ScapeGoatIntKey<>();
+        for(int round=0; round<5; round++){
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<50000; i++){
+                keys.add(rand.nextInt(200000) - 100000);
+            }
+            for(var k : keys){
+                tree.add(k, k * 3);
+                expected.add(k, k * 3);
+            }
+            Collections.shuffle(keys, rand);
+            for(int i=0; i<keys.size() / 2; i++){
+                tree.remove(keys.get(i));
+                expected.remove(keys.get(i));
+            }
+            assertEquals(expected.size(), tree.size());
+            for(int i=0; i<1000; i++){
+                int k = rand.nextInt(200000) - 100000;
+                assertEquals(expected.get(k), tree.get(k));
+                TestUtils.compareArraysWithEqual(expected.getRange(k, k + 500), tree.getRange(k, k + 500),
+                        "Primitive random getRange");
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package CoreUtilsTest;
+
+import CoreUtils.PrimitiveScapeGoatLongKey;
+import CoreUtils.ScapeGoatTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the PrimitiveScapeGoatLongKey class against a ScapeGoatTree with Long keys, and the key packing helpers.
+ */
+public class PrimitiveScapeGoatLongKeyTest {
+    /**
+     * Basic add/get/remove/getRange, including keys outside the int range
+     */
+    @Test
+    void basicTest(){
+        PrimitiveScapeGoatLongKey<String> tree = new PrimitiveScapeGoatLongKey<>(0);
+        assertNull(tree.get(1));
+        assertEquals(0, tree.getRange(Long.MIN_VALUE, Long.MAX_VALUE).size());
+        tree.remove(1);
+
+        tree.add(Long.MIN_VALUE, "min");
+        tree.add(1L << 40, "A");
+        tree.add(Long.MAX_VALUE, "max");
+        tree.add(1L << 40, "not A");
+        assertEquals(3, tree.size());
+        assertEquals("A", tree.get(1L << 40));
+        assertNull(tree.get(0));
+        TestUtils.compareArraysWithEqual(List.of("min", "A", "max"), tree.getRange(Long.MIN_VALUE, Long.MAX_VALUE),
+                "Long getRange");
+
+        tree.remove(Long.MIN_VALUE);
+        assertFalse(tree.containsKey(Long.MIN_VALUE));
+        assertEquals(2, tree.size());
+        tree.clear();
+        assertEquals(0, tree.size());
+    }
+
+    /**
+     * Packed keys sort by (high, low) and unpack to the same parts
+     */
+    @Test
+    void packTest(){
+        int[] parts = {Integer.MIN_VALUE, -7, -1, 0, 1, 12345, Integer.MAX_VALUE};
+        for(int h1 : parts){
+            for(int l1 : parts){
+                long a = PrimitiveScapeGoatLongKey.pack(h1, l1);
+                assertEquals(h1, PrimitiveScapeGoatLongKey.high(a));
+                assertEquals(l1, PrimitiveScapeGoatLongKey.low(a));
+                for(int h2 : parts){
+                    for(int l2 : parts){
+                        long b = PrimitiveScapeGoatLongKey.pack(h2, l2);
+                        int expected = h1 != h2 ? Integer.compare(h1, h2) : Integer.compare(l1, l2);
+                        assertEquals(expected, Long.compare(a, b));
+                    }
+                }
+            }
+        }
+
+        //all events for one timestamp, as a range over the packed keys
+        PrimitiveScapeGoatLongKey<Integer> events = new PrimitiveScapeGoatLongKey<>();
+        for(int time=0; time<100; time++){
+            for(int id=-5; id<5; id++){
+                events.add(PrimitiveScapeGoatLongKey.pack(time, id), time * 100 + id);
+            }
+        }
+        List<Integer> expected = new ArrayList<>();
+        for(int id=-5; id<5; id++){
+            expected.add(4200 + id);
+        }
+        assertEquals(expected, events.getRange(PrimitiveScapeGoatLongKey.pack(42, Integer.MIN_VALUE),
+                PrimitiveScapeGoatLongKey.pack(42, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * (long, int) packing: parts wider than an int sort and unpack correctly, and parts too wide are rejected
+     */
+    @Test
+    void widePackTest(){
+        long millis = 1_790_000_000_000L;
+        long[] highs = {-(1L << 43), -millis, -1, 0, 1, millis, millis + 1, (1L << 43) - 1};
+        int[] lows = {-(1 << 19), -1, 0, 1, (1 << 19) - 1};
+        for(long h1 : highs){
+            for(int l1 : lows){
+                long a = PrimitiveScapeGoatLongKey.pack(h1, l1, 20);
+                assertEquals(h1, PrimitiveScapeGoatLongKey.high(a, 20));
+                assertEquals(l1, PrimitiveScapeGoatLongKey.low(a, 20));
+                for(long h2 : highs){
+                    for(int l2 : lows){
+                        long b = PrimitiveScapeGoatLongKey.pack(h2, l2, 20);
+                        int expected = h1 != h2 ? Long.compare(h1, h2) : Integer.compare(l1, l2);
+                        assertEquals(expected, Long.compare(a, b));
+                    }
+                }
+            }
+        }
+        //32 low bits is the (int, int) layout
+        assertEquals(PrimitiveScapeGoatLongKey.pack(-5, 7), PrimitiveScapeGoatLongKey.pack(-5L, 7, 32));
+        assertEquals(Integer.MIN_VALUE, PrimitiveScapeGoatLongKey.low(PrimitiveScapeGoatLongKey.pack(0L, Integer.MIN_VALUE, 32), 32));
+
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(1L << 43, 0, 20));
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(0, 1 << 19, 20));
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(0, -(1 << 19) - 1, 20));
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(0, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(0, 0, 33));
+        assertThrows(IllegalArgumentException.class, () -> PrimitiveScapeGoatLongKey.pack(millis, 0, 32));
+
+        //events in one millisecond, as a range over the packed keys
+        PrimitiveScapeGoatLongKey<Integer> events = new PrimitiveScapeGoatLongKey<>();
+        for(int t=0; t<100; t++){
+            for(int id=0; id<10; id++){
+                events.add(PrimitiveScapeGoatLongKey.pack(millis + t, id, 20), t * 10 + id);
+            }
+        }
+        assertEquals(List.of(420, 421, 422, 423, 424, 425, 426, 427, 428, 429),
+                events.getRange(PrimitiveScapeGoatLongKey.pack(millis + 42, -(1 << 19), 20),
+                        PrimitiveScapeGoatLongKey.pack(millis + 42, (1 << 19) - 1, 20)));
+    }
+
+    /**
+     * Random operations compared against a ScapeGoatTree with Long keys
+     */
+    @Test
+    void randomAgainstScapeGoatTree(){
+        Random rand = new Random(19);
+        PrimitiveScapeGoatLongKey<Long> tree = new PrimitiveScapeGoatLongKey<>();
+        ScapeGoatTree<Long, Long> expected = new ScapeGoatTree<>();
+        for(int round=0; round<5; round++){
+            List<Long> keys = new ArrayList<>();
+            for(int i=0; i<50000; i++){
+                keys.add(rand.nextLong() >> 20);
+            }
+            for(var k : keys){
+                tree.add(k, k / 3);
+                expected.add(k, k / 3);
+            }
+            Collections.shuffle(keys, rand);
+            for(int i=0; i<keys.size() / 2; i++){
+                tree.remove(keys.get(i));
+                expected.remove(keys.get(i));
+            }
+            assertEquals(expected.size(), tree.size());
+            for(int i=0; i<1000; i++){
+                long k = keys.get(rand.nextInt(keys.size()));
+                assertEquals(expected.get(k), tree.get(k));
+                assertEquals(expected.get(k + 1), tree.get(k + 1));
+            }
+            List<Long> all = new ArrayList<>();
+            for(var node : expected.inorder(expected.root())){
+                all.add(node.value);
+            }
+            assertEquals(all, tree.getRange(Long.MIN_VALUE, Long.MAX_VALUE));
+        }
+    }
+}
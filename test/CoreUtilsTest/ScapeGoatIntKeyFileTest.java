@@ -0,0 +1,143 @@
+package CoreUtilsTest;
+
+import CoreUtils.BinaryCodec;
+import CoreUtils.ScapeGoatIntKey;
+import CoreUtils.ScapeGoatIntKeyFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the ScapeGoatIntKeyFile class.
+ */
+public class ScapeGoatIntKeyFileTest {
+    @TempDir
+    Path dir;
+
+    /**
+     * Writes a tree with null values and reads it back both mapped and as a heap tree
+     */
+    @Test
+    void roundTripTest() throws IOException {
+        Random rand = new Random(251);
+        ScapeGoatIntKey<String> tree = new ScapeGoatIntKey<>();
+        for(int i=0; i<20000; i++){
+            int k = rand.nextInt(100000) - 50000;
+            tree.add(k, k % 7 == 0 ? null : "v" + k);
+        }
+        Path file = dir.resolve("tree.sgk");
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.UTF8);
+
+        ScapeGoatIntKeyFile<String> mapped = ScapeGoatIntKeyFile.open(file, BinaryCodec.UTF8);
+        assertEquals(tree.size(), mapped.size());
+        for(int k=-50000; k<50000; k+=13){
+            assertEquals(tree.get(k), mapped.get(k));
+            if(tree.get(k) != null) assertTrue(mapped.containsKey(k));
+        }
+        assertEquals(tree.getRange(-1000, 1000), mapped.getRange(-1000, 1000));
+        assertEquals(tree.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE), mapped.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(List.of(), mapped.getRange(5, 4));
+        assertTrue(mapped.containsKey(tree.firstKey()));
+        assertNull(mapped.get(tree.firstKey() - 1));
+
+        ScapeGoatIntKey<String> loaded = ScapeGoatIntKeyFile.load(file, BinaryCodec.UTF8);
+        assertEquals(tree.size(), loaded.size());
+        assertEquals(tree.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE), loaded.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        //loaded tree is perfectly balanced, so it takes inserts without trouble
+        loaded.add(60000, "new");
+        assertEquals("new", loaded.get(60000));
+    }
+
+    /**
+     * Empty trees and values bigger than the write buffer
+     */
+    @Test
+    void edgeCaseTest() throws IOException {
+        Path empty = dir.resolve("empty.sgk");
+        ScapeGoatIntKeyFile.write(new ScapeGoatIntKey<Long>(), empty, BinaryCodec.LONG);
+        ScapeGoatIntKeyFile<Long> mapped = ScapeGoatIntKeyFile.open(empty, BinaryCodec.LONG);
+        assertEquals(0, mapped.size());
+        assertNull(mapped.get(0));
+        assertEquals(List.of(), mapped.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        assertEquals(0, mapped.toTree().size());
+
+        ScapeGoatIntKey<String> big = new ScapeGoatIntKey<>();
+        String huge = "x".repeat(200000);
+        big.add(1, "a");
+        big.add(2, huge);
+        big.add(3, "b");
+        Path file = dir.resolve("big.sgk");
+        ScapeGoatIntKeyFile.write(big, file, BinaryCodec.UTF8);
+        assertEquals(List.of("a", huge, "b"), ScapeGoatIntKeyFile.open(file, BinaryCodec.UTF8).getRange(1, 3));
+    }
+
+    /**
+     * Values that encode to zero bytes, so the value section is empty or ends in empty values
+     */
+    @Test
+    void emptyValueTest() throws IOException {
+        ScapeGoatIntKey<String> tree = new ScapeGoatIntKey<>();
+        tree.add(1, "");
+        tree.add(2, "");
+        Path file = dir.resolve("empty-values.sgk");
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.UTF8);
+        ScapeGoatIntKeyFile<String> mapped = ScapeGoatIntKeyFile.open(file, BinaryCodec.UTF8);
+        assertEquals("", mapped.get(1));
+        assertEquals(List.of("", ""), mapped.getRange(1, 2));
+        assertEquals(List.of("", ""), mapped.toTree().getRange(1, 2));
+
+        tree.add(0, "a");
+        tree.add(3, null);
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.UTF8);
+        mapped = ScapeGoatIntKeyFile.open(file, BinaryCodec.UTF8);
+        assertEquals(Arrays.asList("a", "", "", null), mapped.getRange(0, 3));
+    }
+
+    /**
+     * Rewriting a file replaces it in one step and leaves no temporary files behind
+     */
+    @Test
+    void overwriteTest() throws IOException {
+        Path file = dir.resolve("tree.sgk");
+        ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+        tree.add(1, 1);
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.INT);
+        ScapeGoatIntKeyFile<Integer> before = ScapeGoatIntKeyFile.open(file, BinaryCodec.INT);
+        tree.add(2, 2);
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.INT);
+        //the old mapping still sees the old file
+        assertEquals(List.of(1), before.getRange(0, 10));
+        assertEquals(List.of(1, 2), ScapeGoatIntKeyFile.open(file, BinaryCodec.INT).getRange(0, 10));
+        try(var files = Files.list(dir)){
+            assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    /**
+     * Files that are not snapshots, or were cut short, are rejected
+     */
+    @Test
+    void invalidFileTest() throws IOException {
+        Path garbage = dir.resolve("garbage");
+        Files.write(garbage, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        assertThrows(IOException.class, () -> ScapeGoatIntKeyFile.open(garbage, BinaryCodec.INT));
+
+        ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+        for(int i=0; i<100; i++){
+            tree.add(i, i);
+        }
+        Path file = dir.resolve("cut.sgk");
+        ScapeGoatIntKeyFile.write(tree, file, BinaryCodec.INT);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> ScapeGoatIntKeyFile.open(file, BinaryCodec.INT));
+    }
+}
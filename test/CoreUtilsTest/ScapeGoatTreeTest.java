@@ -1,6 +1,13 @@
 package CoreUtilsTest;
 
 
+import CoreUtils.AggregatingScapeGoatIntKey;
+import CoreUtils.FrozenScapeGoatIntKey;
+import CoreUtils.FrozenScapeGoatTree;
+import CoreUtils.NumericScapeGoatIntKey;
+import CoreUtils.RangeMonoid;
+import CoreUtils.RebuildPolicy;
+import CoreUtils.ScapeGoatMetrics;
 import CoreUtils.ScapeGoatIntKey;
 import CoreUtils.ScapeGoatTree;
 import CoreUtils.ScapeGoatTreeInterface.Node;
@@ -13,11 +20,24 @@ import CoreUtilsTest.factories.SizeEmptyBasicAddRemoveBackTestFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -820,4 +840,1281 @@ public class ScapeGoatTreeTest {
             }
         }
     }
+
+    /**
+     * Tests that the cached subtree sizes stay in sync with the actual shape of the tree
+     */
+    @Nested
+    class SubtreeSizeTests {
+        /**
+         * Checks every node's cached size against a brute force count
+         * @param tree tree to verify
+         */
+        <K extends Comparable<K>, V> void verifySizes(ScapeGoatTree<K, V> tree){
+            for(var node : tree.preorder(tree.root())){
+                assertEquals(tree.inorder(node).size(), node.size, "Cached size wrong at " + node);
+            }
+            assertEquals(tree.size(), tree.root() == null ? 0 : tree.root().size);
+        }
+
+        /**
+         * Mixes adds (including duplicates) and removes that trigger both kinds of rebuild
+         */
+        @Test
+        void sizesAfterAddRemove(){
+            ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>();
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<2000; i++){
+                keys.add(i);
+            }
+            Collections.shuffle(keys);
+            for(var i : keys){
+                tree.add(i, i);
+                tree.add(i, i + 1);//duplicate, should not change anything
+            }
+            verifySizes(tree);
+
+            for(int i=0; i<2000; i += 3){
+                tree.remove(i);
+            }
+            verifySizes(tree);
+
+            //sorted inserts force deep insertion paths and scapegoat rebuilds
+            for(int i=2000; i<3000; i++){
+                tree.add(i, i);
+            }
+            verifySizes(tree);
+        }
+    }
+
+    /**
+     * Tests that the traversals do not depend on the thread stack, using hand built degenerate trees
+     */
+    @Nested
+    class DeepTraversalTests {
+        private final int DEPTH = 1000000;//1m, far deeper than the default thread stack allows recursing
+
+        /**
+         * Builds a zig-zag path of DEPTH nodes with keys 0..DEPTH-1
+         * @return root of the path
+         */
+        @SuppressWarnings("unchecked")
+        Node<Integer, Integer> buildZigZag(){
+            //keys alternate between the low and high end so the path goes right, left, right...
+            Node<Integer, Integer> root = new Node<>(0, 0, null, null, null), curr = root;
+            for(int lo=1, hi=DEPTH-1, i=1; i<DEPTH; i++){
+                int key = (i % 2 == 1) ? hi-- : lo++;
+                Node<Integer, Integer> next = new Node<>(key, key, curr, null, null);
+                if(key < curr.key) curr.left = next;
+                else curr.right = next;
+                curr = next;
+            }
+            return root;
+        }
+
+        /**
+         * Inorder and preorder of a very deep path
+         */
+        @Test
+        void deepTraversals(){
+            ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>();
+            Node<Integer, Integer> root = buildZigZag();
+
+            var in = tree.inorder(root);
+            assertEquals(DEPTH, in.size());
+            for(int i=0; i<DEPTH; i++){
+                assertEquals(i, in.get(i).key);
+            }
+
+            var pre = tree.preorder(root);
+            assertEquals(DEPTH, pre.size());
+            Node<Integer, Integer> curr = root;
+            for(int i=0; i<DEPTH; i++){
+                assertSame(curr, pre.get(i));
+                curr = curr.left != null ? curr.left : curr.right;
+            }
+        }
+    }
+
+    /**
+     * Tests building a tree from sorted input and merging sorted batches into a tree
+     */
+    @Nested
+    class BulkLoadTests {
+        /**
+         * Height of a tree (number of nodes on the longest root to leaf path)
+         * @param node root of tree
+         * @return height of tree
+         */
+        int height(Node<?, ?> node){
+            return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+        }
+
+        /**
+         * Checks that the tree holds exactly keys 0..n-1 with the values key*2 and is perfectly balanced
+         * @param tree tree to check
+         * @param keys expected keys, sorted
+         */
+        void verify(ScapeGoatTree<Integer, Integer> tree, List<Integer> keys){
+            assertEquals(keys.size(), tree.size());
+            var nodes = tree.inorder(tree.root());
+            assertEquals(keys.size(), nodes.size());
+            for(int i=0; i<keys.size(); i++){
+                assertEquals(keys.get(i), nodes.get(i).key);
+                assertEquals(keys.get(i)*2, nodes.get(i).value);
+                assertEquals(tree.inorder(nodes.get(i)).size(), nodes.get(i).size);
+            }
+            assertEquals(32 - Integer.numberOfLeadingZeros(keys.size()), height(tree.root()));
+        }
+
+        /**
+         * Bulk loads from lists, arrays and iterators
+         */
+        @Test
+        void fromSortedTest(){
+            for(int n : new int[]{0, 1, 2, 3, 100, 1023, 1024, 100000}){
+                List<Integer> keys = new ArrayList<>(), values = new ArrayList<>();
+                for(int i=0; i<n; i++){
+                    keys.add(i);
+                    values.add(i*2);
+                }
+                verify(ScapeGoatTree.fromSorted(keys, values), keys);
+                verify(ScapeGoatTree.fromSorted(keys.toArray(new Integer[0]), values.toArray(new Integer[0])), keys);
+                verify(ScapeGoatTree.fromSorted(keys.iterator(), values.iterator(), n), keys);
+            }
+
+            //still a normal tree afterwards
+            ScapeGoatTree<Integer, Integer> tree = ScapeGoatTree.fromSorted(List.of(0, 2, 4), List.of(0, 4, 8));
+            tree.add(1, 2);
+            tree.add(3, 6);
+            tree.remove(4);
+            verify(tree, List.of(0, 1, 2, 3));
+
+            ScapeGoatIntKey<String> intTree = ScapeGoatIntKey.fromSorted(new int[]{-5, 0, 5, 10}, List.of("a", "b", "c", "d"));
+            TestUtils.compareArraysWithEqual(List.of("b", "c"), intTree.getRange(0, 9), "Bulk loaded getRange");
+        }
+
+        /**
+         * Unsorted, duplicate, null, and mismatched input should throw
+         */
+        @Test
+        void fromSortedInvalidTest(){
+            assertThrows(IllegalArgumentException.class, () -> ScapeGoatTree.fromSorted(List.of(1, 0), List.of(1, 2)));
+            assertThrows(IllegalArgumentException.class, () -> ScapeGoatTree.fromSorted(List.of(1, 1), List.of(1, 2)));
+            assertThrows(IllegalArgumentException.class, () -> ScapeGoatTree.fromSorted(List.of(1, 2), List.of(1)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> ScapeGoatTree.fromSorted(new Integer[]{1, null}, new Integer[]{1, 2}));
+            assertThrows(IllegalArgumentException.class,
+                    () -> ScapeGoatTree.fromSorted(List.of(1).iterator(), List.of(1).iterator(), 2));
+        }
+
+        /**
+         * Merges both small batches (plain adds) and large ones (single pass merge) into existing trees
+         */
+        @Test
+        void addAllSortedTest(){
+            List<Integer> evens = new ArrayList<>(), evenValues = new ArrayList<>();
+            List<Integer> all = new ArrayList<>(), allValues = new ArrayList<>();
+            for(int i=0; i<10000; i++){
+                if(i % 2 == 0){
+                    evens.add(i);
+                    evenValues.add(i*2);
+                }
+                all.add(i);
+                allValues.add(i*2);
+            }
+
+            //large batch that overlaps the tree, existing values must win
+            ScapeGoatTree<Integer, Integer> tree = ScapeGoatTree.fromSorted(evens, evenValues);
+            List<Integer> wrongValues = new ArrayList<>(allValues);
+            for(int i=0; i<wrongValues.size(); i += 2){
+                wrongValues.set(i, -1);
+            }
+            tree.addAllSorted(all, wrongValues);
+            verify(tree, all);
+
+            //small batch
+            tree = ScapeGoatTree.fromSorted(evens, evenValues);
+            tree.addAllSorted(List.of(1, 3, 10001), List.of(2, 6, 20002));
+            assertEquals(evens.size() + 3, tree.size());
+            assertEquals(6, tree.get(3));
+            assertEquals(20002, tree.get(10001));
+
+            //into an empty tree
+            tree = new ScapeGoatTree<>();
+            tree.addAllSorted(all, allValues);
+            verify(tree, all);
+
+            //invalid batch leaves the tree alone
+            ScapeGoatTree<Integer, Integer> unchanged = ScapeGoatTree.fromSorted(evens, evenValues);
+            assertThrows(IllegalArgumentException.class, () -> unchanged.addAllSorted(List.of(3, 1), List.of(6, 2)));
+            verify(unchanged, evens);
+        }
+    }
+
+    /**
+     * Tests the lazy entry iterator, the cursor, and the lazy range iterator
+     */
+    @Nested
+    class IteratorCursorTests {
+        ScapeGoatIntKey<Integer> tree;
+        private final int NUM_EL = 10000;
+
+        /**
+         * Fills the tree with the even keys in [0, 2*NUM_EL), value = key + 1
+         */
+        @BeforeEach
+        void setup(){
+            tree = new ScapeGoatIntKey<>();
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<NUM_EL; i++){
+                keys.add(2*i);
+            }
+            Collections.shuffle(keys);
+            for(var i : keys){
+                tree.add(i, i + 1);
+            }
+        }
+
+        /**
+         * Iterator and stream produce every entry in order
+         */
+        @Test
+        void iteratorTest(){
+            int expected = 0;
+            for(Map.Entry<Integer, Integer> e : tree){
+                assertEquals(expected, e.getKey());
+                assertEquals(expected + 1, e.getValue());
+                expected += 2;
+            }
+            assertEquals(2*NUM_EL, expected);
+            assertEquals(NUM_EL, tree.stream().count());
+            assertEquals(List.of(0, 2, 4), tree.stream().limit(3).map(Map.Entry::getKey).collect(Collectors.toList()));
+            assertFalse(new ScapeGoatTree<String, String>().iterator().hasNext());
+
+            Iterator<Map.Entry<Integer, Integer>> it = tree.iterator();
+            it.next();
+            tree.add(-1, 0);
+            assertThrows(ConcurrentModificationException.class, it::next);
+        }
+
+        /**
+         * Cursor seeks and moves both ways
+         */
+        @Test
+        void cursorTest(){
+            var cursor = tree.cursor();
+            assertFalse(cursor.valid());
+
+            //exact and in between keys
+            assertTrue(cursor.seek(100));
+            assertEquals(100, cursor.key());
+            assertEquals(101, cursor.value());
+            assertTrue(cursor.seek(101));
+            assertEquals(102, cursor.key());
+            assertTrue(cursor.prev());
+            assertEquals(100, cursor.key());
+
+            //walk the whole tree backwards
+            assertTrue(cursor.seekLast());
+            int count = 1;
+            for(int expected = 2*NUM_EL - 4; cursor.prev(); expected -= 2, count++){
+                assertEquals(expected, cursor.key());
+            }
+            assertEquals(NUM_EL, count);
+
+            //forwards
+            assertTrue(cursor.seekFirst());
+            count = 1;
+            while(cursor.next()) count++;
+            assertEquals(NUM_EL, count);
+
+            assertFalse(cursor.seek(2*NUM_EL));
+            assertThrows(java.util.NoSuchElementException.class, cursor::key);
+
+            cursor.seekFirst();
+            tree.remove(0);
+            assertThrows(ConcurrentModificationException.class, cursor::next);
+        }
+
+        /**
+         * Range iterator matches getRange and can stop early
+         */
+        @Test
+        void rangeIteratorTest(){
+            for(int[] range : new int[][]{{-10, 10}, {3, 3}, {4, 4}, {100, 201}, {2*NUM_EL - 3, 5*NUM_EL}, {10, 5}}){
+                List<Integer> lazy = new ArrayList<>();
+                tree.rangeIterator(range[0], range[1]).forEachRemaining(lazy::add);
+                TestUtils.compareArraysWithEqual(tree.getRange(range[0], range[1]), lazy, "Range iterator");
+            }
+            Iterator<Integer> it = tree.rangeIterator(0, 2*NUM_EL);
+            assertEquals(1, it.next());
+            assertEquals(3, it.next());
+        }
+
+        /**
+         * forEachInRange and the range streams, both directions, against getRange, with early stops
+         */
+        @Test
+        void rangeScanTest(){
+            for(int[] range : new int[][]{{-10, 10}, {3, 3}, {4, 4}, {100, 201}, {2*NUM_EL - 3, 5*NUM_EL}, {10, 5}}){
+                List<Integer> expected = tree.getRange(range[0], range[1]);
+                List<Integer> reversed = new ArrayList<>(expected);
+                Collections.reverse(reversed);
+
+                List<Integer> visited = new ArrayList<>();
+                assertEquals(expected.size(), tree.forEachInRange(range[0], range[1], (k, v) -> {
+                    assertEquals(k + 1, v);
+                    return visited.add(v);
+                }));
+                assertEquals(expected, visited);
+                visited.clear();
+                tree.forEachInRangeDescending(range[0], range[1], (k, v) -> visited.add(v));
+                assertEquals(reversed, visited);
+
+                assertEquals(expected, tree.rangeStream(range[0], range[1]).collect(Collectors.toList()));
+                assertEquals(reversed, tree.descendingRangeStream(range[0], range[1]).collect(Collectors.toList()));
+                List<Integer> lazy = new ArrayList<>();
+                tree.descendingRangeIterator(range[0], range[1]).forEachRemaining(lazy::add);
+                assertEquals(reversed, lazy);
+                assertEquals(expected.size(), tree.rangeSpliterator(range[0], range[1]).estimateSize());
+            }
+
+            //stop after the first k matches
+            List<Integer> firstFive = new ArrayList<>();
+            assertEquals(5, tree.forEachInRange(1000, 2000, (k, v) -> {
+                firstFive.add(k);
+                return firstFive.size() < 5;
+            }));
+            assertEquals(List.of(1000, 1002, 1004, 1006, 1008), firstFive);
+            List<Integer> lastThree = new ArrayList<>();
+            tree.forEachInRangeDescending(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                    (k, v) -> lastThree.add(k) && lastThree.size() < 3);
+            assertEquals(List.of(2*NUM_EL - 2, 2*NUM_EL - 4, 2*NUM_EL - 6), lastThree);
+            assertEquals(List.of(2*NUM_EL - 1, 2*NUM_EL - 3),
+                    tree.descendingRangeStream(0, 2*NUM_EL).limit(2).collect(Collectors.toList()));
+
+            assertThrows(ConcurrentModificationException.class,
+                    () -> tree.forEachInRange(0, 10, (k, v) -> { tree.remove(k); return true; }));
+        }
+    }
+
+    /**
+     * Tests countRange and the range aggregates against brute force over getRange
+     */
+    @Nested
+    class RangeAggregateTests {
+        /**
+         * Concatenation: associative but not commutative, so it catches summaries combined out of order
+         */
+        final RangeMonoid<Integer, String> CONCAT = new RangeMonoid<>() {
+            @Override
+            public String identity() { return ""; }
+            @Override
+            public String lift(Integer value) { return value + ","; }
+            @Override
+            public String combine(String left, String right) { return left + right; }
+        };
+
+        /**
+         * Random adds/removes then random ranges, for all the aggregates at once
+         */
+        @Test
+        void randomRangesTest(){
+            Random rand = new Random(251);
+            AggregatingScapeGoatIntKey<Integer, String> concat = new AggregatingScapeGoatIntKey<>(CONCAT);
+            NumericScapeGoatIntKey<Integer> numeric = new NumericScapeGoatIntKey<>();
+            for(int i=0; i<20000; i++){
+                int k = rand.nextInt(10000);
+                if(rand.nextInt(3) == 0){
+                    concat.remove(k);
+                    numeric.remove(k);
+                }else{
+                    concat.add(k, k - 5000);
+                    numeric.add(k, k - 5000);
+                }
+            }
+            for(int i=0; i<2000; i++){
+                int start = rand.nextInt(11000) - 500, end = start + rand.nextInt(i % 2 == 0 ? 50 : 5000);
+                List<Integer> values = numeric.getRange(start, end);
+                assertEquals(values.size(), numeric.countRange(start, end));
+                assertEquals(values.size(), concat.countRange(start, end));
+                assertEquals(values.stream().map(v -> v + ",").collect(Collectors.joining()),
+                        concat.aggregateRange(start, end));
+                assertEquals(values.stream().mapToDouble(v -> v).sum(), numeric.sumRange(start, end));
+                assertEquals(values.stream().min(Integer::compare).map(Double::valueOf).orElse(null),
+                        numeric.minRange(start, end));
+                assertEquals(values.stream().max(Integer::compare).map(Double::valueOf).orElse(null),
+                        numeric.maxRange(start, end));
+            }
+            assertEquals(0, numeric.countRange(10, 5));
+            assertNull(numeric.minRange(10, 5));
+            assertEquals(numeric.sumRange(Integer.MIN_VALUE, Integer.MAX_VALUE), numeric.aggregateAll().sum);
+        }
+
+        /**
+         * countRange on a plain ScapeGoatIntKey
+         */
+        @Test
+        void countRangeTest(){
+            ScapeGoatIntKey<String> tree = ScapeGoatIntKey.fromSorted(new int[]{1, 3, 5, 7, 9}, List.of("a", "b", "c", "d", "e"));
+            assertEquals(5, tree.countRange(0, 10));
+            assertEquals(3, tree.countRange(3, 7));
+            assertEquals(2, tree.countRange(2, 6));
+            assertEquals(1, tree.countRange(9, 9));
+            assertEquals(0, tree.countRange(10, 100));
+            assertEquals(0, new ScapeGoatIntKey<String>().countRange(0, 1));
+        }
+
+        /**
+         * Parallel scans and reductions match the sequential ones, in order
+         */
+        @Test
+        void parallelRangeTest() throws Exception {
+            Random rand = new Random(23);
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            for(int i=0; i<200000; i++){
+                int k = rand.nextInt(1000000);
+                tree.add(k, k);
+            }
+            for(int i=0; i<200; i++){
+                int start = rand.nextInt(1100000) - 50000, end = start + rand.nextInt(i % 2 == 0 ? 100 : 500000);
+                List<Integer> values = tree.getRange(start, end);
+                assertEquals(values, tree.parallelGetRange(start, end));
+                assertEquals(values.stream().map(v -> v + ",").collect(Collectors.joining()),
+                        tree.parallelReduce(start, end, CONCAT));
+                assertEquals(values.stream().filter(v -> v % 3 == 0).count(),
+                        tree.parallelCountRange(start, end, v -> v % 3 == 0));
+            }
+            assertEquals(List.of(), tree.parallelGetRange(10, 5));
+            assertEquals("", tree.parallelReduce(10, 5, CONCAT));
+
+            //in a pool of our own
+            ForkJoinPool pool = new ForkJoinPool(4);
+            try{
+                long sum = pool.submit(() -> tree.parallelRangeStream(Integer.MIN_VALUE, Integer.MAX_VALUE)
+                        .mapToLong(v -> v).sum()).get();
+                assertEquals(tree.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE).stream().mapToLong(v -> v).sum(), sum);
+            }finally{
+                pool.shutdown();
+            }
+        }
+
+        /**
+         * Splits are exact, disjoint, ordered, and even wherever the range sits in the tree
+         */
+        @Test
+        void rangeSpliteratorSplitTest(){
+            int[] keys = new int[1 << 16];
+            List<Integer> values = new ArrayList<>();
+            for(int i=0; i<keys.length; i++){
+                keys[i] = 2 * i;
+                values.add(2 * i);
+            }
+            ScapeGoatIntKey<Integer> tree = ScapeGoatIntKey.fromSorted(keys, values);
+            Spliterator<Integer> right = tree.rangeSpliterator(1000, 100000);
+            assertEquals(tree.countRange(1000, 100000), right.estimateSize());
+            Spliterator<Integer> left = right.trySplit();
+            long total = tree.countRange(1000, 100000);
+            assertEquals(total, left.estimateSize() + right.estimateSize());
+            assertTrue(Math.abs(left.estimateSize() - right.estimateSize()) <= 1,
+                    left.estimateSize() + " " + right.estimateSize());
+
+            //split after a partial walk, then split all the way down
+            left.tryAdvance(v -> assertEquals(1000, v));
+            List<Spliterator<Integer>> parts = new ArrayList<>(List.of(left, right));
+            for(int round=0; round<20; round++){
+                List<Spliterator<Integer>> next = new ArrayList<>();
+                for(var part : parts){
+                    Spliterator<Integer> prefix = part.trySplit();
+                    if(prefix != null) next.add(prefix);
+                    next.add(part);
+                }
+                parts = next;
+            }
+            List<Integer> collected = new ArrayList<>();
+            for(var part : parts){
+                assertEquals(1, part.estimateSize());
+                part.forEachRemaining(collected::add);
+                assertEquals(0, part.estimateSize());
+            }
+            assertEquals(tree.getRange(1002, 100000), collected);
+
+            Spliterator<Integer> single = tree.rangeSpliterator(4, 4);
+            assertNull(single.trySplit());
+            assertNull(tree.rangeSpliterator(5, 5).trySplit());
+        }
+    }
+
+    /**
+     * Tests rank, select, and percentile
+     */
+    @Nested
+    class OrderStatisticTests {
+        /**
+         * Checks every rank and select against an inorder traversal after random adds and removes
+         */
+        @Test
+        void rankSelectTest(){
+            Random rand = new Random(251);
+            ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>();
+            for(int i=0; i<20000; i++){
+                int k = 2 * rand.nextInt(10000);
+                if(rand.nextInt(3) == 0) tree.remove(k);
+                else tree.add(k, -k);
+            }
+            var nodes = tree.inorder(tree.root());
+            for(int i=0; i<nodes.size(); i++){
+                int key = nodes.get(i).key;
+                assertEquals(i, tree.rank(key));
+                assertEquals(i + 1, tree.rank(key + 1));//odd keys are never in the tree
+                var entry = tree.select(i);
+                assertEquals(key, entry.getKey());
+                assertEquals(-key, entry.getValue());
+            }
+            assertEquals(0, tree.rank(-1));
+            assertEquals(tree.size(), tree.rank(Integer.MAX_VALUE));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.select(-1));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.select(tree.size()));
+            assertThrows(IllegalArgumentException.class, () -> tree.rank(null));
+        }
+
+        /**
+         * Nearest-rank percentiles
+         */
+        @Test
+        void percentileTest(){
+            List<Integer> keys = new ArrayList<>();
+            for(int i=1; i<=100; i++){
+                keys.add(i);
+            }
+            ScapeGoatTree<Integer, Integer> tree = ScapeGoatTree.fromSorted(keys, keys);
+            assertEquals(1, tree.percentile(0).getKey());
+            assertEquals(1, tree.percentile(0.01).getKey());
+            assertEquals(50, tree.percentile(0.5).getKey());
+            assertEquals(99, tree.percentile(0.99).getKey());
+            assertEquals(100, tree.percentile(0.995).getKey());
+            assertEquals(100, tree.percentile(1).getKey());
+            assertThrows(IllegalArgumentException.class, () -> tree.percentile(1.5));
+            assertThrows(IllegalArgumentException.class, () -> tree.percentile(Double.NaN));
+            assertThrows(IndexOutOfBoundsException.class, () -> new ScapeGoatTree<Integer, Integer>().percentile(0.5));
+        }
+    }
+
+    /**
+     * Tests the nearest-key lookups and polling
+     */
+    @Nested
+    class NavigableTests {
+        /**
+         * Every lookup on a tree of the multiples of 10 in [0, 1000)
+         */
+        @Test
+        void nearestKeyTest(){
+            ScapeGoatTree<Integer, String> tree = new ScapeGoatTree<>();
+            assertNull(tree.floorKey(5));
+            assertNull(tree.firstEntry());
+            assertNull(tree.pollFirstEntry());
+            for(int i=0; i<100; i++){
+                tree.add(((i * 37) % 100) * 10, "v" + ((i * 37) % 100) * 10);
+            }
+            for(int k=-5; k<1005; k++){
+                Integer floor = k < 0 ? null : Math.min(990, k / 10 * 10);
+                Integer ceiling = k > 990 ? null : Math.max(0, (k + 9) / 10 * 10);
+                Integer lower = k <= 0 ? null : Math.min(990, (k - 1) / 10 * 10);
+                Integer higher = k >= 990 ? null : Math.max(0, (k + 10) / 10 * 10);
+                assertEquals(floor, tree.floorKey(k), "floor " + k);
+                assertEquals(ceiling, tree.ceilingKey(k), "ceiling " + k);
+                assertEquals(lower, tree.lowerKey(k), "lower " + k);
+                assertEquals(higher, tree.higherKey(k), "higher " + k);
+                if(floor != null) assertEquals("v" + floor, tree.floorEntry(k).getValue());
+                if(higher != null) assertEquals("v" + higher, tree.higherEntry(k).getValue());
+            }
+            assertNull(tree.floorKey(null));
+            assertEquals(0, tree.firstKey());
+            assertEquals(990, tree.lastKey());
+            assertEquals("v990", tree.lastEntry().getValue());
+        }
+
+        /**
+         * Polling drains the tree in order from either end
+         */
+        @Test
+        void pollTest(){
+            ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>();
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<10000; i++){
+                keys.add(i);
+            }
+            Collections.shuffle(keys);
+            for(var k : keys){
+                tree.add(k, k + 1);
+            }
+            for(int lo=0, hi=9999; lo <= hi; lo++, hi--){
+                var first = tree.pollFirstEntry();
+                assertEquals(lo, first.getKey());
+                assertEquals(lo + 1, first.getValue());
+                if(lo != hi){
+                    assertEquals(hi, tree.pollLastEntry().getKey());
+                }
+                assertEquals(hi - lo - 1, tree.size());
+                assertNull(tree.get(lo));
+            }
+            assertNull(tree.root());
+            assertNull(tree.pollLastEntry());
+        }
+    }
+
+    /**
+     * Tests removeRange, split, and join
+     */
+    @Nested
+    class RangeRemoveSplitJoinTests {
+        /**
+         * Checks that tree holds exactly keys, with value = key + 1, and consistent sizes
+         * @param tree tree to check
+         * @param keys expected keys in order
+         */
+        void verify(ScapeGoatTree<Integer, Integer> tree, List<Integer> keys){
+            var nodes = tree.inorder(tree.root());
+            assertEquals(keys.size(), tree.size());
+            assertEquals(keys.size(), nodes.size());
+            for(int i=0; i<keys.size(); i++){
+                assertEquals(keys.get(i), nodes.get(i).key);
+                assertEquals(keys.get(i) + 1, nodes.get(i).value);
+                assertEquals(tree.inorder(nodes.get(i)).size(), nodes.get(i).size);
+            }
+        }
+
+        /**
+         * Builds a ScapeGoatIntKey with keys [0, n) added in random order
+         * @param n number of keys
+         * @return new tree
+         */
+        ScapeGoatIntKey<Integer> build(int n){
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<n; i++){
+                keys.add(i);
+            }
+            Collections.shuffle(keys);
+            for(var k : keys){
+                tree.add(k, k + 1);
+            }
+            return tree;
+        }
+
+        /**
+         * Keys in [lo, hi) in order
+         */
+        List<Integer> keysBetween(int lo, int hi){
+            List<Integer> keys = new ArrayList<>();
+            for(int i=lo; i<hi; i++){
+                keys.add(i);
+            }
+            return keys;
+        }
+
+        /**
+         * Small (one by one) and large (vine cut) ranges
+         */
+        @Test
+        void removeRangeTest(){
+            ScapeGoatIntKey<Integer> tree = build(10000);
+            tree.setMetricsEnabled(true);
+            assertEquals(5, tree.removeRange(100, 104));
+            assertEquals(0, tree.removeRange(100, 104));
+            //counting the range is internal, not a user lookup
+            assertEquals(0, tree.getMetrics().lookups());
+            tree.setMetricsEnabled(false);
+            assertEquals(0, tree.removeRange(10, 5));
+            List<Integer> expected = keysBetween(0, 100);
+            expected.addAll(keysBetween(105, 10000));
+            verify(tree, expected);
+
+            assertEquals(50 + 6000 - 105, tree.removeRange(50, 5999));
+            expected = keysBetween(0, 50);
+            expected.addAll(keysBetween(6000, 10000));
+            verify(tree, expected);
+
+            //bounds not in the tree
+            assertEquals(50, tree.removeRange(-100, 5000));
+            verify(tree, keysBetween(6000, 10000));
+            assertEquals(4000, tree.removeRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+            assertNull(tree.root());
+        }
+
+        /**
+         * Split and join are inverses
+         */
+        @Test
+        void splitJoinTest(){
+            ScapeGoatIntKey<Integer> tree = build(10000);
+            ScapeGoatIntKey<Integer> upper = tree.split(6000);
+            verify(tree, keysBetween(0, 6000));
+            verify(upper, keysBetween(6000, 10000));
+
+            assertThrows(IllegalArgumentException.class, () -> upper.join(tree));
+            assertThrows(IllegalArgumentException.class, () -> tree.join(tree));
+            assertThrows(IllegalArgumentException.class, () -> tree.join(new ScapeGoatTree<>()));
+            verify(tree, keysBetween(0, 6000));
+
+            tree.join(upper);
+            verify(tree, keysBetween(0, 10000));
+            assertNull(upper.root());
+            assertEquals(0, upper.size());
+
+            //edges
+            verify(tree.split(-1), keysBetween(0, 10000));
+            assertNull(tree.root());
+            ScapeGoatIntKey<Integer> all = build(100);
+            verify(all.split(100), List.of());
+            verify(all, keysBetween(0, 100));
+            ScapeGoatIntKey<Integer> empty = new ScapeGoatIntKey<>();
+            empty.join(all);
+            verify(empty, keysBetween(0, 100));
+
+            //still a working tree
+            empty.add(1000, 1001);
+            empty.remove(0);
+            List<Integer> expected = keysBetween(1, 100);
+            expected.add(1000);
+            verify(empty, expected);
+
+            //aggregates survive a split
+            NumericScapeGoatIntKey<Integer> numeric = new NumericScapeGoatIntKey<>();
+            for(int i=0; i<100; i++){
+                numeric.add(i, i);
+            }
+            NumericScapeGoatIntKey<Integer> numericUpper = numeric.split(50);
+            assertEquals(49 * 50 / 2.0, numeric.sumRange(0, 100));
+            assertEquals(99 * 100 / 2.0 - 49 * 50 / 2.0, numericUpper.sumRange(0, 100));
+        }
+    }
+
+    /**
+     * Tests for freeze() and the Eytzinger layout
+     */
+    @Nested
+    class FrozenTests {
+        /**
+         * Every size up to 70 (so every shape of the last level), checking each key and the gaps between them
+         */
+        @Test
+        void allSizesTest(){
+            for(int n=0; n<70; n++){
+                ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+                for(int i=0; i<n; i++){
+                    tree.add(2 * i, i);
+                }
+                FrozenScapeGoatIntKey<Integer> frozen = tree.freeze();
+                FrozenScapeGoatTree<Integer, Integer> generic = new FrozenScapeGoatTree<>(tree);
+                assertEquals(n, frozen.size());
+                for(int k=-1; k<=2 * n; k++){
+                    Integer expected = k % 2 == 0 && k < 2 * n ? k / 2 : null;
+                    assertEquals(expected, frozen.get(k));
+                    assertEquals(expected, frozen.get(Integer.valueOf(k)));
+                    assertEquals(expected, generic.get(k));
+                    assertEquals(expected != null, frozen.containsKey(k));
+                    assertEquals(tree.getRange(k, k + 7), frozen.getRange(k, k + 7));
+                    assertEquals(tree.getRange(k, k + 7), generic.getRange(k, k + 7));
+                }
+                int i = 0;
+                for(Map.Entry<Integer, Integer> e : generic){
+                    assertEquals(2 * i, e.getKey());
+                    assertEquals(i++, e.getValue());
+                }
+                assertEquals(n, i);
+            }
+        }
+
+        /**
+         * Extreme keys, null values and independence from the source tree
+         */
+        @Test
+        void edgeCaseTest(){
+            ScapeGoatIntKey<String> tree = new ScapeGoatIntKey<>();
+            tree.add(Integer.MIN_VALUE, "min");
+            tree.add(Integer.MAX_VALUE, "max");
+            tree.add(0, null);
+            FrozenScapeGoatIntKey<String> frozen = tree.freeze();
+            tree.remove(Integer.MIN_VALUE);
+            assertEquals("min", frozen.get(Integer.MIN_VALUE));
+            assertEquals("max", frozen.get(Integer.MAX_VALUE));
+            assertTrue(frozen.containsKey(0));
+            assertNull(frozen.get(0));
+            assertEquals(Arrays.asList("min", null, "max"), frozen.getRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+            assertEquals(List.of(), frozen.getRange(1, Integer.MAX_VALUE - 1));
+
+            ScapeGoatTree<String, Integer> strings = new ScapeGoatTree<>();
+            for(String str : new String[]{"pear", "apple", "fig", "kiwi"}){
+                strings.add(str, str.length());
+            }
+            FrozenScapeGoatTree<String, Integer> frozenStrings = strings.freeze();
+            assertEquals(List.of(5, 3, 4), frozenStrings.getRange("a", "l"));
+            assertNull(frozenStrings.get("banana"));
+            assertNull(frozenStrings.get(null));
+        }
+    }
+
+    /**
+     * Tests for per-tree alpha and the rebuild policies
+     */
+    @Nested
+    class AlphaPolicyTests {
+        private int height(Node<Integer, Integer> node){
+            return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+        }
+
+        /**
+         * Sorted inserts hit the height bound of whatever alpha the tree uses
+         */
+        @Test
+        void alphaTest(){
+            assertThrows(IllegalArgumentException.class, () -> new ScapeGoatTree<Integer, Integer>(0.5));
+            assertThrows(IllegalArgumentException.class, () -> new ScapeGoatTree<Integer, Integer>(1.0));
+            assertThrows(IllegalArgumentException.class, () -> new ScapeGoatIntKey<Integer>(Double.NaN));
+            final int N = 50000;
+            for(double alpha : new double[]{0.51, 0.57, 0.75, 0.9}){
+                ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>(alpha);
+                assertEquals(alpha, tree.getAlpha());
+                for(int i=0; i<N; i++){
+                    tree.add(i, i);
+                }
+                for(int i=0; i<N; i+=3){
+                    tree.remove(i);
+                }
+                double bound = Math.log(tree.size()) / Math.log(1 / alpha) + 1;
+                assertTrue(height(tree.root()) <= bound + 1, "alpha " + alpha + " height " + height(tree.root()));
+                assertEquals(N - (N + 2) / 3, tree.getRange(0, N).size());
+            }
+
+            //the default matches the old constant, and the setting carries over to split trees
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            assertEquals(0.57, tree.getAlpha());
+            tree.setAlpha(0.8);
+            tree.setRebuildPolicy(RebuildPolicy.DEFERRED);
+            tree.add(1, 1);
+            tree.add(2, 2);
+            ScapeGoatIntKey<Integer> upper = tree.split(2);
+            assertEquals(0.8, upper.getAlpha());
+            assertEquals(RebuildPolicy.DEFERRED, upper.getRebuildPolicy());
+        }
+
+        /**
+         * Deferred removes leave the tree alone until the next add or rebalance()
+         */
+        @Test
+        void deferredTest(){
+            ScapeGoatIntKey<Integer> eager = new ScapeGoatIntKey<>(), deferred = new ScapeGoatIntKey<>();
+            deferred.setRebuildPolicy(RebuildPolicy.DEFERRED);
+            assertThrows(IllegalArgumentException.class, () -> deferred.setRebuildPolicy(null));
+            for(int i=0; i<1000; i++){
+                eager.add(i, i);
+                deferred.add(i, i);
+            }
+            //remove everything right of the root: enough to cross the threshold, but the root itself never moves
+            Node<Integer, Integer> root = deferred.root();
+            int rootKey = root.key;
+            assertTrue(rootKey < 570, "root " + rootKey);
+            for(int i=rootKey+1; i<1000; i++){
+                eager.remove(i);
+                deferred.remove(i);
+            }
+            assertSame(root, deferred.root());
+            assertNull(deferred.root().right);
+            assertNotNull(eager.root().right);
+            for(int i=0; i<rootKey; i++){
+                eager.remove(i);
+                deferred.remove(i);
+            }
+            assertEquals(1, deferred.size());
+            assertEquals(rootKey, deferred.get(rootKey));
+
+            deferred.add(2000, 2000);
+            assertEquals(2, height(deferred.root()));
+            assertEquals(List.of(rootKey, 2000), deferred.getRange(0, 3000));
+
+            for(int i=0; i<100; i++){
+                deferred.add(i, i);
+            }
+            for(int i=0; i<90; i++){
+                deferred.remove(i);
+            }
+            deferred.rebalance();
+            assertEquals(12, deferred.size());
+            assertEquals(4, height(deferred.root()));
+
+            //switching back to eager does the rebuild that was waiting
+            for(int i=90; i<100; i++){
+                deferred.remove(i);
+            }
+            deferred.setRebuildPolicy(RebuildPolicy.EAGER);
+            //rebuilt: the root is the element at floor(size/2)
+            assertEquals(2000, deferred.root().key);
+            assertEquals(List.of(rootKey, 2000), deferred.getRange(0, 3000));
+            assertEquals(List.of(rootKey), eager.getRange(0, 3000));
+        }
+
+        /**
+         * Incremental rebuilds leave the tree alone in the remove that crosses the threshold, stay correct under
+         *   changes made while they run, and eventually swap in a balanced tree (with correct aggregates)
+         */
+        @Test
+        void incrementalTest(){
+            final int N = 10000;
+            NumericScapeGoatIntKey<Integer> tree = new NumericScapeGoatIntKey<>();
+            tree.setRebuildPolicy(RebuildPolicy.INCREMENTAL);
+            List<Integer> expected = new ArrayList<>();
+            for(int i=0; i<N; i++){
+                tree.add(i, i);
+            }
+            //remove from the top until just before the threshold, then cross it
+            int removed = 0;
+            while(N - removed - 1 > 0.57 * N){
+                tree.remove(N - 1 - removed++);
+            }
+            Node<Integer, Integer> root = tree.root();
+            int rootKey = root.key;
+            tree.remove(N - 1 - removed++);
+            assertSame(root, tree.root());
+            assertEquals(rootKey, tree.root().key);
+
+            //keep changing the tree while the rebuild runs, on both sides of the copy cursor
+            Random rand = new Random(17);
+            for(int i=0; i<N - removed; i++){
+                expected.add(i);
+            }
+            boolean swapped = false;
+            for(int op=0; op<2000; op++){
+                int k = rand.nextInt(N);
+                if(rand.nextBoolean()){
+                    if(tree.get(k) == null){
+                        expected.add(-Collections.binarySearch(expected, k) - 1, k);
+                    }
+                    tree.add(k, k);
+                } else {
+                    int idx = Collections.binarySearch(expected, k);
+                    if(idx >= 0) expected.remove(idx);
+                    tree.remove(k);
+                }
+                assertEquals(expected.size(), tree.size());
+                swapped |= tree.root() != root;
+                if(op % 100 == 0){
+                    assertEquals(expected, tree.getRange(0, N));
+                }
+            }
+            assertTrue(swapped);
+            assertEquals(expected, tree.getRange(0, N));
+            assertEquals(expected.stream().mapToDouble(Integer::doubleValue).sum(), tree.sumRange(0, N));
+            assertEquals(expected.get(0).doubleValue(), tree.minRange(0, N));
+            double bound = Math.log(tree.size()) / Math.log(1 / 0.57) + 2;
+            assertTrue(height(tree.root()) <= bound, "height " + height(tree.root()));
+
+            //a bulk change in the middle of a rebuild cancels it
+            while(tree.size() > 1000) tree.pollFirstEntry();
+            tree.removeRange(0, N);
+            assertEquals(0, tree.size());
+            tree.add(1, 1);
+            assertEquals(List.of(1), tree.getRange(0, N));
+        }
+    }
+
+    /**
+     * Tests for the batched getAll and putAll
+     */
+    @Nested
+    class BatchTests {
+        private int height(Node<Integer, Integer> node){
+            return node == null ? 0 : 1 + Math.max(height(node.left), height(node.right));
+        }
+
+        /**
+         * getAll matches get for hits, misses and repeated keys
+         */
+        @Test
+        void getAllTest(){
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            assertEquals(Arrays.asList(null, null), tree.getAll(List.of(1, 2)));
+            Random rand = new Random(18);
+            for(int i=0; i<5000; i++){
+                int k = rand.nextInt(20000);
+                tree.add(k, -k);
+            }
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<2000; i++){
+                keys.add(rand.nextInt(22000) - 1000);
+            }
+            Collections.sort(keys);
+            List<Integer> expected = new ArrayList<>();
+            for(int k : keys){
+                expected.add(tree.get(k));
+            }
+            assertEquals(expected, tree.getAll(keys));
+            assertEquals(List.of(), tree.getAll(List.of()));
+            assertThrows(IllegalArgumentException.class, () -> tree.getAll(List.of(2, 1)));
+            assertThrows(IllegalArgumentException.class, () -> tree.getAll(Arrays.asList(1, null)));
+        }
+
+        /**
+         * putAll gives the same contents as adding one by one, and keeps the height bound
+         */
+        @Test
+        void putAllTest(){
+            Random rand = new Random(180);
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>(), reference = new ScapeGoatIntKey<>();
+            for(int i=0; i<20000; i++){
+                int k = rand.nextInt(1000000);
+                tree.add(k, k);
+                reference.add(k, k);
+            }
+            for(int batch=0; batch<50; batch++){
+                //clustered batches, to pile new nodes into the same subtrees
+                int base = rand.nextInt(1000000);
+                List<Integer> keys = new ArrayList<>();
+                for(int i=0; i<rand.nextInt(1000); i++){
+                    keys.add(base + 3 * i);
+                }
+                tree.putAll(keys, keys);
+                for(int k : keys){
+                    reference.add(k, k);
+                }
+                assertEquals(reference.size(), tree.size());
+                double bound = Math.log(tree.size()) / Math.log(1 / 0.57) + 1;
+                assertTrue(height(tree.root()) <= bound + 1, "height " + height(tree.root()));
+            }
+            assertEquals(reference.getRange(0, 2000000), tree.getRange(0, 2000000));
+
+            //duplicates are skipped, bad batches leave the tree alone
+            int size = tree.size();
+            int first = tree.firstKey();
+            tree.putAll(List.of(first), List.of(-1));
+            assertEquals(first, tree.get(first));
+            assertThrows(IllegalArgumentException.class, () -> tree.putAll(List.of(5, 5), List.of(1, 2)));
+            assertThrows(IllegalArgumentException.class, () -> tree.putAll(List.of(5), List.of()));
+            assertEquals(size, tree.size());
+
+            //a big batch into a small tree goes through the merge
+            ScapeGoatIntKey<Integer> small = new ScapeGoatIntKey<>();
+            small.add(-1, -1);
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<1000; i++) keys.add(i);
+            small.putAll(keys, keys);
+            assertEquals(1001, small.size());
+            assertEquals(10, height(small.root()));
+        }
+    }
+
+    @Nested
+    class ComparatorTests {
+        /**
+         * Key type with no natural order
+         */
+        record Point(int x, int y) {}
+
+        /**
+         * Reverse order comparator: iteration, navigation, split, join, freeze and getAll all follow it
+         */
+        @Test
+        void reverseOrderTest(){
+            ScapeGoatTree<Integer, Integer> tree = new ScapeGoatTree<>(Comparator.reverseOrder());
+            List<Integer> keys = new ArrayList<>();
+            for(int i=0; i<1000; i++){
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(19));
+            for(int k : keys){
+                tree.add(k, k);
+            }
+            tree.add(500, -500);
+            assertEquals(1000, tree.size());
+            assertEquals(500, tree.get(500));
+            assertEquals(999, tree.firstKey());
+            assertEquals(10, tree.ceilingKey(10));
+            assertEquals(999 - 3, tree.inorder(tree.root()).get(3).key);
+
+            List<Integer> query = List.of(900, 400, 400, -5);
+            assertEquals(Arrays.asList(900, 400, 400, null), tree.getAll(query));
+            assertThrows(IllegalArgumentException.class, () -> tree.getAll(List.of(1, 2)));
+
+            FrozenScapeGoatTree<Integer, Integer> frozen = tree.freeze();
+            assertEquals(List.of(700, 699, 698), frozen.getRange(700, 698));
+            assertEquals(999, frozen.iterator().next().getKey());
+
+            //everything >= 300 in the tree's order, i.e. the keys 300 and below
+            ScapeGoatTree<Integer, Integer> low = tree.split(300);
+            assertEquals(300, low.firstKey());
+            assertEquals(301, low.size());
+            assertEquals(699, tree.size());
+            assertSame(tree.comparator(), low.comparator());
+            tree.join(low);
+            assertEquals(1000, tree.size());
+            assertThrows(IllegalArgumentException.class, () -> tree.join(new ScapeGoatTree<>()));
+
+            for(int i=0; i<1000; i+=2){
+                tree.remove(i);
+            }
+            List<Integer> expected = new ArrayList<>();
+            for(int i=999; i>0; i-=2){
+                expected.add(i);
+            }
+            assertEquals(expected, tree.inorder(tree.root()).stream().map(n -> n.key).collect(Collectors.toList()));
+        }
+
+        /**
+         * Keys that are not Comparable work given a comparator
+         */
+        @Test
+        void nonComparableKeyTest(){
+            ScapeGoatTree<Point, String> tree = new ScapeGoatTree<>(
+                    Comparator.comparingInt(Point::x).thenComparingInt(Point::y));
+            for(int x=0; x<30; x++){
+                for(int y=29; y>=0; y--){
+                    tree.add(new Point(x, y), x + "," + y);
+                }
+            }
+            assertEquals(900, tree.size());
+            assertEquals("4,7", tree.get(new Point(4, 7)));
+            assertNull(tree.get(new Point(4, 30)));
+            assertEquals(new Point(5, 0), tree.higherKey(new Point(4, 29)));
+            tree.remove(new Point(4, 7));
+            assertNull(tree.get(new Point(4, 7)));
+            assertEquals(899, tree.size());
+            assertNull(new ScapeGoatTree<Integer, Integer>().comparator());
+        }
+    }
+
+    @Nested
+    class MetricsTests {
+        /**
+         * Counters off by default, and consistent with what the tree did once on
+         */
+        @Test
+        void countersTest(){
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            assertNull(tree.getMetrics());
+            tree.setMetricsEnabled(true);
+            ScapeGoatMetrics empty = tree.getMetrics();
+            assertEquals(0, empty.rebuilds());
+            assertEquals(0, empty.height());
+            assertEquals(0, empty.heightBound());
+            assertEquals(0, empty.averageInsertDepth());
+
+            //sorted inserts force rebuilds along the right spine
+            for(int i=0; i<1000; i++){
+                tree.add(i, i);
+            }
+            ScapeGoatMetrics m = tree.getMetrics();
+            assertEquals(1000, m.inserts());
+            assertEquals(1000, m.size());
+            assertTrue(m.rebuilds() > 0);
+            assertTrue(m.rebuiltNodes() >= m.rebuilds());
+            assertTrue(m.scapegoatSteps() > 0);
+            assertTrue(m.maxInsertDepth() < m.heightBound());
+            assertTrue(m.averageInsertDepth() > 0 && m.averageInsertDepth() <= m.maxInsertDepth());
+            assertTrue(m.height() <= m.heightBound(), m.toString());
+            assertEquals(0, m.removeRebuilds());
+
+            for(int i=0; i<100; i++){
+                tree.get(i);
+            }
+            m = tree.getMetrics();
+            assertEquals(100, m.lookups());
+            assertTrue(m.lookupComparisons() >= 100 && m.lookupComparisons() <= 100L * m.height());
+
+            //removing half the tree crosses alpha * maxNodeCount once
+            long rebuilds = m.rebuilds();
+            for(int i=0; i<500; i++){
+                tree.remove(i);
+            }
+            m = tree.getMetrics();
+            assertEquals(1, m.removeRebuilds());
+            assertEquals(rebuilds + 1, m.rebuilds());
+
+            tree.setMetricsEnabled(true);
+            assertEquals(0, tree.getMetrics().lookups());
+            tree.setMetricsEnabled(false);
+            assertNull(tree.getMetrics());
+        }
+
+        /**
+         * The height is remembered between snapshots but follows every change to the tree
+         */
+        @Test
+        void heightTest(){
+            ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+            tree.setMetricsEnabled(true);
+            for(int i=0; i<1023; i++){
+                tree.add(i, i);
+            }
+            tree.rebalance();
+            //a perfect tree of 2^10 - 1 nodes, then one more node below its last level (well within alpha)
+            assertEquals(10, tree.getMetrics().height());
+            assertEquals(10, tree.getMetrics().height());
+            tree.add(1023, 1023);
+            assertEquals(11, tree.getMetrics().height());
+            tree.clear();
+            assertEquals(0, tree.getMetrics().height());
+            tree.add(1, 1);
+            assertEquals(1, tree.getMetrics().height());
+        }
+
+        /**
+         * A deferred rebuild counts once however many removes follow, and incremental swaps count as a rebuild
+         */
+        @Test
+        void removePolicyTest(){
+            for(RebuildPolicy policy : RebuildPolicy.values()){
+                ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+                for(int i=0; i<2000; i++){
+                    tree.add(i, i);
+                }
+                tree.setRebuildPolicy(policy);
+                tree.setMetricsEnabled(true);
+                for(int i=0; i<900; i++){
+                    tree.remove(i);
+                }
+                //drives any pending or in-progress rebuild to completion
+                for(int i=0; i<200; i++){
+                    tree.add(-1 - i, 0);
+                }
+                ScapeGoatMetrics m = tree.getMetrics();
+                assertEquals(1, m.removeRebuilds(), policy.toString());
+                assertTrue(m.rebuilds() >= 1, policy.toString());
+                assertTrue(m.height() <= m.heightBound(), policy + " " + m);
+            }
+        }
+
+        /**
+         * Every counted rebuild shows up as a JFR event
+         */
+        @Test
+        void jfrEventTest() throws IOException {
+            Path file = Files.createTempFile("scapegoat", ".jfr");
+            try(Recording recording = new Recording()){
+                recording.enable("CoreUtils.ScapeGoatRebuild");
+                recording.start();
+                ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+                tree.setMetricsEnabled(true);
+                for(int i=0; i<300; i++){
+                    tree.add(i, i);
+                }
+                for(int i=0; i<200; i++){
+                    tree.remove(i);
+                }
+                recording.stop();
+                recording.dump(file);
+
+                List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                        .filter(e -> e.getEventType().getName().equals("CoreUtils.ScapeGoatRebuild"))
+                        .collect(Collectors.toList());
+                ScapeGoatMetrics m = tree.getMetrics();
+                assertEquals(m.rebuilds(), events.size());
+                assertEquals(m.rebuiltNodes(), events.stream().mapToLong(e -> e.getInt("rebuiltNodes")).sum());
+                assertEquals(m.removeRebuilds(), events.stream().filter(e -> e.getBoolean("removeTriggered")).count());
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package CoreUtilsTest.benchmarks;
+
+import CoreUtils.FrozenScapeGoatIntKey;
+import CoreUtils.ScapeGoatIntKey;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Compares random lookups in the pointer-based ScapeGoatIntKey against its frozen Eytzinger copy
+ *   ({@link FrozenScapeGoatIntKey}) for growing tree sizes.  Each size is warmed up first so both paths are
+ *   JIT compiled before being timed.
+ * <p>
+ * Not a junit test (the big sizes need a lot of heap), run it by hand:
+ * <code>java -Xmx32g CoreUtilsTest.benchmarks.FrozenLookupBenchmark [numKeys...]</code>
+ */
+public class FrozenLookupBenchmark {
+    private static final int[] DEFAULT_SIZES = {1000000, 10000000, 100000000};//1m, 10m, 100m
+    private static final int NUM_LOOKUPS = 5000000;//5m
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Builds a tree of size keys (every third int, so half the lookups miss) and times both lookup paths
+     * @param size number of keys
+     */
+    private static void run(int size) {
+        ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+        int[] keys = new int[size];
+        for (int i = 0; i < size; i++) keys[i] = 3 * i;
+        tree.addAllSorted(IntStream.of(keys).boxed().toList(),
+                IntStream.range(0, size).boxed().toList());
+        FrozenScapeGoatIntKey<Integer> frozen = tree.freeze();
+
+        Random rand = new Random(size);
+        int[] probes = new int[NUM_LOOKUPS];
+        for (int i = 0; i < NUM_LOOKUPS; i++) probes[i] = rand.nextInt(3 * size);
+
+        long treeNanos = 0, frozenNanos = 0, sink = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int probe : probes) {
+                Integer v = tree.get(probe);
+                if (v != null) sink += v;
+            }
+            long mid = System.nanoTime();
+            for (int probe : probes) {
+                Integer v = frozen.get(probe);
+                if (v != null) sink -= v;
+            }
+            long end = System.nanoTime();
+            //only the last round counts
+            treeNanos = mid - start;
+            frozenNanos = end - mid;
+        }
+        if (sink != 0) throw new AssertionError("Frozen lookups disagree with the tree");
+        System.out.printf("%,12d keys: pointer tree %.1f ns/lookup, frozen %.1f ns/lookup (%.2fx)%n", size,
+                (double) treeNanos / NUM_LOOKUPS, (double) frozenNanos / NUM_LOOKUPS,
+                (double) treeNanos / frozenNanos);
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+        for (int size : sizes) {
+            run(size);
+            System.gc();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package CoreUtilsTest.benchmarks;
+
+import CoreUtils.ScapeGoatIntKey;
+
+import java.util.stream.IntStream;
+
+/**
+ * Compares a sequential full-range sum over a ScapeGoatIntKey against the parallel range stream
+ *   ({@link ScapeGoatIntKey#parallelRangeStream}) for growing tree sizes.  Each size is warmed up first so both
+ *   paths are JIT compiled before being timed.
+ * <p>
+ * Not a junit test (the big sizes need a lot of heap), run it by hand:
+ * <code>java -Xmx32g CoreUtilsTest.benchmarks.ParallelRangeBenchmark [numKeys...]</code>
+ */
+public class ParallelRangeBenchmark {
+    private static final int[] DEFAULT_SIZES = {1000000, 10000000, 100000000};//1m, 10m, 100m
+    private static final int WARMUP_ROUNDS = 3;
+
+    /**
+     * Builds a tree of size keys and times a sum over all of its values both ways
+     * @param size number of keys
+     */
+    private static void run(int size) {
+        ScapeGoatIntKey<Integer> tree = new ScapeGoatIntKey<>();
+        tree.addAllSorted(IntStream.range(0, size).boxed().toList(), IntStream.range(0, size).boxed().toList());
+
+        long sequentialNanos = 0, parallelNanos = 0;
+        for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sequential = tree.rangeStream(0, size).mapToLong(v -> v).sum();
+            long mid = System.nanoTime();
+            long parallel = tree.parallelRangeStream(0, size).mapToLong(v -> v).sum();
+            long end = System.nanoTime();
+            if (sequential != parallel) throw new AssertionError("Parallel sum disagrees with the sequential one");
+            //only the last round counts
+            sequentialNanos = mid - start;
+            parallelNanos = end - mid;
+        }
+        System.out.printf("%,12d keys: sequential %.1f ms, parallel %.1f ms (%.2fx on %d cores)%n", size,
+                sequentialNanos / 1e6, parallelNanos / 1e6, (double) sequentialNanos / parallelNanos,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = DEFAULT_SIZES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+        for (int size : sizes) {
+            run(size);
+            System.gc();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package CoreUtilsTest.benchmarks;
+
+import CoreUtils.ScapeGoatTree;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Measures how many bytes a full-tree rebuild allocates, comparing the in-place rebuild in ScapeGoatTree
+ *   against the old list-and-copy rebuild (reproduced below in {@link CopyingRebuildTree}).
+ * <p>
+ * Not a junit test (it needs a few GB of heap), run it by hand:
+ * <code>java -Xmx4g CoreUtilsTest.benchmarks.RebuildAllocationBenchmark [numNodes]</code>
+ */
+public class RebuildAllocationBenchmark {
+    private static final int DEFAULT_NUM_NODES = 5000000;//5m
+    private static final int NUM_REBUILDS = 5;
+
+    /**
+     * Tree that exposes a root rebuild for timing
+     */
+    static class InPlaceRebuildTree extends ScapeGoatTree<Integer, Integer> {
+        void rebuildRoot() { root = rebuild(root); }
+    }
+
+    /**
+     * Tree using the previous rebuild: inorder() into a list, then a brand new node per element
+     */
+    static class CopyingRebuildTree extends InPlaceRebuildTree {
+        @Override
+        protected Node<Integer, Integer> rebuild(Node<Integer, Integer> node) {
+            List<Node<Integer, Integer>> list = inorder(node);
+            if (list.isEmpty()) return null;
+            return buildBalancedClean(list, 0, list.size() - 1, node.parent);
+        }
+
+        private Node<Integer, Integer> buildBalancedClean(List<Node<Integer, Integer>> nodes, int lo, int hi,
+                                                          Node<Integer, Integer> parent) {
+            if (lo > hi) return null;
+            int mid = lo + (hi - lo + 1) / 2;
+            Node<Integer, Integer> src = nodes.get(mid);
+            Node<Integer, Integer> n = new Node<>(src.key, src.value, parent, null, null);
+            n.size = hi - lo + 1;
+            n.left = buildBalancedClean(nodes, lo, mid - 1, n);
+            n.right = buildBalancedClean(nodes, mid + 1, hi, n);
+            return n;
+        }
+    }
+
+    /**
+     * Bytes allocated so far by the current thread
+     * @return allocated bytes
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Fills the tree and reports allocation and time per root rebuild
+     * @param name name to report under
+     * @param tree empty tree to use
+     * @param numNodes number of nodes to insert
+     */
+    private static void run(String name, InPlaceRebuildTree tree, int numNodes) {
+        for (int i = 0; i < numNodes; i++) {
+            tree.add(i, i);
+        }
+        long bytes = 0, nanos = 0;
+        for (int i = 0; i < NUM_REBUILDS; i++) {
+            long startBytes = allocatedBytes(), startNanos = System.nanoTime();
+            tree.rebuildRoot();
+            nanos += System.nanoTime() - startNanos;
+            bytes += allocatedBytes() - startBytes;
+        }
+        System.out.printf("%-10s %,d nodes: %,d bytes allocated and %.1f ms per root rebuild%n",
+                name, numNodes, bytes / NUM_REBUILDS, nanos / 1e6 / NUM_REBUILDS);
+    }
+
+    public static void main(String[] args) {
+        int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_NODES;
+        run("copying", new CopyingRebuildTree(), numNodes);
+        System.gc();
+        run("in-place", new InPlaceRebuildTree(), numNodes);
+    }
+}